@@ -0,0 +1,290 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/** Benchmarks the main Repo commands and the Utils primitives they are built
+ *  on, against synthetic repos. Can be invoked as follows:
+ *      java gitlet.Benchmark [OPTION VALUE]...
+ *  where the options are
+ *      --files N      files in the repo (default 1000)
+ *      --size N       bytes in each file (default 1024)
+ *      --depth N      commits of history before the branches (default 100)
+ *      --branches N   branches made and merged back in (default 4)
+ *      --rounds N     times the whole thing is repeated (default 5)
+ *      --out FILE     where the results go (default standard output)
+ *
+ *  Every round builds a fresh repo in a temporary directory: writes the
+ *  files, adds and commits them, makes DEPTH commits that each change one
+ *  file in a hundred, then runs status, log, global-log and find, makes
+ *  BRANCHES branches that each change files of their own and merges them
+ *  all back into master. Each command is run on a new Repo, as it would be
+ *  by a new gitlet process. Anything the commands print is thrown away.
+ *
+ *  The results are written out as a JSON object holding the parameters, a
+ *  few facts about the JVM, and for each operation the number of samples
+ *  and the minimum, mean, median and maximum time in ms. The first round is
+ *  a warm-up and is not counted unless it is the only one.
+ *  @author SEANJHANNON */
+public class Benchmark {
+
+    /** Files in each directory of a synthetic repo. */
+    private static final int FILES_PER_DIR = 50;
+    /** Iterations of each primitive per round. */
+    private static final int PRIMITIVE_OPS = 1000;
+
+    /** The value of each option, by name. */
+    private final Map<String, Integer> _params = new LinkedHashMap<>();
+    /** Samples of each operation, in ns, in the order first run. */
+    private final Map<String, List<Long>> _samples = new LinkedHashMap<>();
+    /** Swallows everything the commands print. */
+    private final OutputStream _sink = OutputStream.nullOutputStream();
+    /** The directory of the repo being benchmarked. */
+    private File _dir;
+    /** True while the warm-up round is running. */
+    private boolean _warmup;
+
+    /** Runs the benchmark.
+     * @param args - the options */
+    public static void main(String... args) {
+        Benchmark bench = new Benchmark();
+        String out = null;
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 == args.length || !args[i].startsWith("--")) {
+                throw new GitletException("Usage: java gitlet.Benchmark "
+                        + "[--files N] [--size N] [--depth N] "
+                        + "[--branches N] [--rounds N] [--out FILE]");
+            }
+            String name = args[i].substring(2);
+            if (name.equals("out")) {
+                out = args[i + 1];
+            } else if (bench._params.containsKey(name)) {
+                bench._params.put(name, Integer.parseInt(args[i + 1]));
+            } else {
+                throw new GitletException("Unknown option " + args[i]);
+            }
+        }
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(bench._sink));
+        try {
+            bench.run();
+        } finally {
+            System.setOut(stdout);
+        }
+        if (out == null) {
+            stdout.print(bench.toJSON());
+        } else {
+            Utils.writeContents(new File(out), bench.toJSON());
+        }
+    }
+
+    /** Creates a benchmark with the default parameters. */
+    Benchmark() {
+        _params.put("files", 1000);
+        _params.put("size", 1024);
+        _params.put("depth", 100);
+        _params.put("branches", 4);
+        _params.put("rounds", 5);
+    }
+
+    /** Runs every round, plus the warm-up. */
+    void run() {
+        int rounds = _params.get("rounds");
+        for (int round = 0; round <= rounds; round += 1) {
+            _warmup = round == 0 && rounds > 0;
+            try {
+                _dir = Files.createTempDirectory("gitlet-bench").toFile();
+                primitives(new Random(round));
+                repoCommands(new Random(round));
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            } finally {
+                deleteAll(_dir);
+            }
+        }
+    }
+
+    /** Times the Utils primitives on files of the benchmark's size.
+     * @param random - makes up file contents */
+    private void primitives(Random random) {
+        byte[] data = contents(random);
+        File file = new File(_dir, "primitive");
+        time("utils.sha1", () -> {
+            for (int i = 0; i < PRIMITIVE_OPS; i += 1) {
+                Utils.sha1(data);
+            }
+        });
+        time("utils.writeContents", () -> {
+            for (int i = 0; i < PRIMITIVE_OPS; i += 1) {
+                Utils.writeContents(file, data);
+            }
+        });
+        time("utils.readContents", () -> {
+            for (int i = 0; i < PRIMITIVE_OPS; i += 1) {
+                Utils.readContents(file);
+            }
+        });
+        time("blob.hash", () -> {
+            for (int i = 0; i < PRIMITIVE_OPS; i += 1) {
+                new Blob(file).getSHA();
+            }
+        });
+        file.delete();
+    }
+
+    /** Builds a synthetic repo and times the Repo commands on it.
+     * @param random - makes up file contents */
+    private void repoCommands(Random random) {
+        int files = _params.get("files");
+        for (int i = 0; i < files; i += 1) {
+            writeFile(random, i);
+        }
+        repo().init();
+        time("add", () -> repo().add("add", "-A"));
+        time("commit", () -> repo().commit("add every file", null));
+        int changed = Math.max(1, files / 100);
+        for (int d = 0; d < _params.get("depth"); d += 1) {
+            for (int i = 0; i < changed; i += 1) {
+                writeFile(random, random.nextInt(files));
+            }
+            time("add.incremental", () -> repo().add("add", "-A"));
+            String message = "history " + d;
+            time("commit.incremental", () -> repo().commit(message, null));
+        }
+        time("status", () -> repo().status());
+        time("log", () -> repo().log("log"));
+        time("global-log", () -> repo().globalLog("global-log"));
+        time("find", () -> repo().find("find", "history 0"));
+
+        int branches = _params.get("branches");
+        for (int b = 0; b < branches; b += 1) {
+            String branch = "branch" + b;
+            repo().branch(branch);
+            time("checkout", () -> repo().checkout("checkout", branch));
+            for (int i = 0; i < changed; i += 1) {
+                writeFile(random, (b * changed + i) % files);
+            }
+            repo().add("add", "-A");
+            repo().commit("work on " + branch, null);
+            time("checkout", () -> repo().checkout("checkout", "master"));
+        }
+        writeFile(random, files - 1);
+        repo().add("add", "-A");
+        repo().commit("work on master", null);
+        for (int b = 0; b < branches; b += 1) {
+            String branch = "branch" + b;
+            time("merge", () -> repo().merge(branch));
+        }
+    }
+
+    /** Returns a Repo for the benchmark's directory, as a new gitlet
+     * process would see it. */
+    private Repo repo() {
+        Repo repo = new Repo(_dir, _sink);
+        if (repo.getGitRepo().exists()) {
+            repo.upgrade();
+        }
+        return repo;
+    }
+
+    /** Fills file number I with random contents.
+     * @param random - makes up the contents
+     * @param i - which file */
+    private void writeFile(Random random, int i) {
+        File file = Utils.join(_dir, "dir" + (i / FILES_PER_DIR),
+                "file" + i + ".txt");
+        file.getParentFile().mkdirs();
+        Utils.writeContents(file, contents(random));
+    }
+
+    /** Returns random printable contents of the benchmark's file size.
+     * @param random - makes up the contents */
+    private byte[] contents(Random random) {
+        byte[] result = new byte[_params.get("size")];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) (i % 64 == 63 ? '\n' : 'a' + random.nextInt(26));
+        }
+        return result;
+    }
+
+    /** Runs OP and records how long it took as a sample of NAME.
+     * @param name - the operation
+     * @param op - what to time */
+    private void time(String name, Runnable op) {
+        long start = System.nanoTime();
+        op.run();
+        long elapsed = System.nanoTime() - start;
+        List<Long> samples =
+            _samples.computeIfAbsent(name, k -> new ArrayList<>());
+        if (!_warmup) {
+            samples.add(elapsed);
+        }
+    }
+
+    /** Returns the results as JSON. */
+    String toJSON() {
+        StringBuilder json = new StringBuilder("{\n  \"params\": {");
+        String sep = "";
+        for (Map.Entry<String, Integer> e : _params.entrySet()) {
+            json.append(sep).append(Utils.quoteJSON(e.getKey())).append(": ")
+                .append(e.getValue());
+            sep = ", ";
+        }
+        json.append("},\n  \"env\": {")
+            .append("\"java\": ")
+            .append(Utils.quoteJSON(System.getProperty("java.version")))
+            .append(", \"os\": ")
+            .append(Utils.quoteJSON(System.getProperty("os.name")))
+            .append(", \"cpus\": ")
+            .append(Runtime.getRuntime().availableProcessors())
+            .append(", \"threads\": ").append(Utils.threads())
+            .append("},\n  \"results\": [");
+        sep = "\n";
+        for (Map.Entry<String, List<Long>> e : _samples.entrySet()) {
+            List<Long> samples = new ArrayList<>(e.getValue());
+            Collections.sort(samples);
+            long total = 0;
+            for (long sample : samples) {
+                total += sample;
+            }
+            int n = samples.size();
+            json.append(sep).append("    {\"name\": ")
+                .append(Utils.quoteJSON(e.getKey()))
+                .append(", \"unit\": \"ms\", \"samples\": ").append(n);
+            if (n > 0) {
+                json.append(String.format(", \"min\": %.3f, \"mean\": %.3f, "
+                        + "\"median\": %.3f, \"max\": %.3f",
+                        samples.get(0) / 1e6, total / 1e6 / n,
+                        (samples.get((n - 1) / 2) + samples.get(n / 2)) / 2e6,
+                        samples.get(n - 1) / 1e6));
+            }
+            json.append("}");
+            sep = ",\n";
+        }
+        return json.append("\n  ]\n}\n").toString();
+    }
+
+    /** Deletes FILE, and everything in it if it is a directory.
+     * @param file - the file or directory, or null */
+    private static void deleteAll(File file) {
+        if (file == null) {
+            return;
+        }
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -1,42 +1,56 @@
 package gitlet;
 
 import java.io.File;
+import java.io.InputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Files;
 
 /** The BLOB class - another building block of a good ditlet repo. Blobs are
  * unique and each store snapshots of a particular file from a particular
  * moment in time. They are kept in files where each filename is the SHA-1 of
- * the BLOB object it contains.
+ * the BLOB's contents, so the same contents stored under any number of names
+ * only ever take up one file.
  * @author SEANJHANNON */
 public class Blob implements Serializable {
-    /** The contents of the file the BLOB was created from. */
-    private byte[] _contents;
+    /** Hashed in front of a blob's contents. Bump the number if the way blob
+     * ids are computed ever changes again. */
+    static final String ID_PREFIX = "blob 1\0";
+
+    /** The SHA-1 of the file's contents. */
+    private final String _sha;
     /** The file's name! */
-    private String _fname;
+    private final String _fname;
 
-    /** The BLOB constructor! Pretty simple, just reads the contents of a file
-     * into itself in a deepcopy-esque fashion.
+    /** The BLOB constructor! Streams the contents of a file through SHA-1
+     * without ever holding the whole thing in memory.
      * @param file - the file to read from */
     public Blob(File file) {
-        _contents = Utils.readContents(file);
+        try {
+            _sha = idOf(Files.newInputStream(file.toPath()));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
         _fname = file.getName();
     }
 
-    /** Getter method for the contents of a blob, which are in turn the
-     * contents of a file in the CWD at a particular moment in time.
-     * @return exactly what you think it would */
-    public byte[] getContents() {
-        return _contents;
-    }
-
     /** Similar to Commit's getSHA method, simplifies a lot of code.
      * @return the SHA-1 */
     public String getSHA() {
-        return Utils.sha1(Utils.serialize(this), "blob");
+        return _sha;
     }
+
     /** Getter method for the file's name.
      * @return the filename */
     public String getFname() {
         return _fname;
     }
+
+    /** Computes the id a blob holding the contents of IN would have. Only
+     * the contents matter, never the name of the file they came from.
+     * @param in - the contents, which get closed afterwards
+     * @return the SHA-1 */
+    static String idOf(InputStream in) {
+        return Utils.sha1(ID_PREFIX, in);
+    }
 }
@@ -0,0 +1,234 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/** The compact binary format gitlet keeps its own objects in: commits, the
+ * staging area and its journal, and the working index. Java serialization
+ * writes class descriptors along with every object and breaks whenever a
+ * class changes; this format holds only the fields, in a fixed order, under
+ * a version number that readers check.
+ *
+ * Every record starts with MAGIC, a type byte and the version of that
+ * type's layout. Integers are varints: seven bits to a byte, low bits first,
+ * with the top bit set on every byte but the last, so small numbers take a
+ * single byte. Signed numbers are zigzag encoded first so that small
+ * negative ones stay small. SHA-1 ids are stored as their 20 raw bytes.
+ * Strings are interned within a record: the first time one appears it is
+ * written out as its length and UTF-8 bytes, and every time after that as
+ * the number of that first copy.
+ * @author SEANJHANNON */
+class Codec {
+
+    /** First bytes of every record. */
+    private static final byte[] MAGIC = {'G', 'L'};
+    /** Type byte of commits. */
+    static final byte COMMIT = 'c';
+    /** Type byte of the staging area. */
+    static final byte STAGE = 's';
+    /** Type byte of a batch in the staging area's journal. */
+    static final byte JOURNAL = 'j';
+    /** Type byte of the working index. */
+    static final byte INDEX = 'i';
+
+    /** Written in place of a null string or id. */
+    private static final int NULL = 0;
+    /** Written before a string or id given in full. */
+    private static final int LITERAL = 1;
+    /** Added to the number of an interned string to tell it apart from
+     * NULL and LITERAL. */
+    private static final int REFERENCE = 2;
+    /** Number of bytes in a raw SHA-1. */
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+
+    /** Returns true if DATA was written with Java serialization, as
+     * everything was before this format existed.
+     * @param data - the contents of a record */
+    static boolean isLegacy(byte[] data) {
+        return data.length >= 2 && (data[0] & 0xff) == 0xac
+            && (data[1] & 0xff) == 0xed;
+    }
+
+    /** Builds up a record. */
+    static class Writer {
+        /** The bytes written so far. */
+        private final ByteArrayOutputStream _out =
+            new ByteArrayOutputStream();
+        /** The number of every string written so far. */
+        private final HashMap<String, Integer> _strings = new HashMap<>();
+
+        /** Starts a record of type TYPE, laid out as VERSION.
+         * @param type - the type byte
+         * @param version - the version of the layout */
+        Writer(byte type, int version) {
+            _out.writeBytes(MAGIC);
+            _out.write(type);
+            varint(version);
+        }
+
+        /** Writes non-negative N as a varint.
+         * @param n - the number */
+        void varint(long n) {
+            while ((n & ~0x7fL) != 0) {
+                _out.write((int) (n & 0x7f) | 0x80);
+                n >>>= 7;
+            }
+            _out.write((int) n);
+        }
+
+        /** Writes N, which may be negative, as a zigzag encoded varint.
+         * @param n - the number */
+        void signed(long n) {
+            varint((n << 1) ^ (n >> 63));
+        }
+
+        /** Writes B as a single byte.
+         * @param b - the flag */
+        void bool(boolean b) {
+            _out.write(b ? 1 : 0);
+        }
+
+        /** Writes S, or a reference to an earlier copy of it.
+         * @param s - the string, or null */
+        void string(String s) {
+            if (s == null) {
+                varint(NULL);
+                return;
+            }
+            Integer seen = _strings.get(s);
+            if (seen != null) {
+                varint(seen + REFERENCE);
+                return;
+            }
+            _strings.put(s, _strings.size());
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            varint(LITERAL);
+            varint(bytes.length);
+            _out.writeBytes(bytes);
+        }
+
+        /** Writes SHA-1 ID as its raw bytes.
+         * @param id - the sha1, or null */
+        void id(String id) {
+            if (id == null) {
+                _out.write(NULL);
+                return;
+            }
+            _out.write(LITERAL);
+            _out.writeBytes(IdIndex.toBytes(id));
+        }
+
+        /** Returns the finished record. */
+        byte[] toByteArray() {
+            return _out.toByteArray();
+        }
+    }
+
+    /** Reads the fields of a record back in the order they were written. */
+    static class Reader {
+        /** The record. */
+        private final ByteBuffer _in;
+        /** The version of the record's layout. */
+        private final int _version;
+        /** Every string read so far, by number. */
+        private final List<String> _strings = new ArrayList<>();
+
+        /** Starts reading DATA, which must be a record of type TYPE laid out
+         * as version MAXVERSION or lower.
+         * @param data - the record
+         * @param type - the type byte it must have
+         * @param maxVersion - the newest layout this code understands */
+        Reader(byte[] data, byte type, int maxVersion) {
+            _in = ByteBuffer.wrap(data);
+            for (byte b : MAGIC) {
+                if (get() != b) {
+                    throw new IllegalArgumentException("Not a gitlet "
+                            + "record.");
+                }
+            }
+            if (get() != type) {
+                throw new IllegalArgumentException("Wrong type of record.");
+            }
+            _version = (int) varint();
+            if (_version > maxVersion) {
+                throw new GitletException("This repo was made by a newer "
+                        + "version of Gitlet.");
+            }
+        }
+
+        /** Returns the version of the record's layout. */
+        int version() {
+            return _version;
+        }
+
+        /** Reads a varint. */
+        long varint() {
+            long result = 0;
+            for (int shift = 0; shift < Long.SIZE; shift += 7) {
+                byte b = get();
+                result |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return result;
+                }
+            }
+            throw new IllegalArgumentException("Corrupt record.");
+        }
+
+        /** Reads a zigzag encoded varint. */
+        long signed() {
+            long n = varint();
+            return (n >>> 1) ^ -(n & 1);
+        }
+
+        /** Reads a single byte flag. */
+        boolean bool() {
+            return get() != 0;
+        }
+
+        /** Reads a string, which may be null. */
+        String string() {
+            long tag = varint();
+            if (tag == NULL) {
+                return null;
+            } else if (tag >= REFERENCE && tag - REFERENCE < _strings.size()) {
+                return _strings.get((int) (tag - REFERENCE));
+            } else if (tag != LITERAL) {
+                throw new IllegalArgumentException("Corrupt record.");
+            }
+            int length = (int) varint();
+            if (length > _in.remaining()) {
+                throw new IllegalArgumentException("Corrupt record.");
+            }
+            String s = new String(_in.array(), _in.position(), length,
+                    StandardCharsets.UTF_8);
+            _in.position(_in.position() + length);
+            _strings.add(s);
+            return s;
+        }
+
+        /** Reads a SHA-1 id, which may be null. */
+        String id() {
+            if (get() == NULL) {
+                return null;
+            }
+            if (_in.remaining() < ID_BYTES) {
+                throw new IllegalArgumentException("Corrupt record.");
+            }
+            byte[] raw = new byte[ID_BYTES];
+            _in.get(raw);
+            return Utils.toHex(raw);
+        }
+
+        /** Reads one byte. */
+        private byte get() {
+            if (!_in.hasRemaining()) {
+                throw new IllegalArgumentException("Corrupt record.");
+            }
+            return _in.get();
+        }
+    }
+}
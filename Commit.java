@@ -1,50 +1,176 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Objects;
 
 /** The COMMIT class - super essential! Each unique commit contains metadata
  * about a particular version of the CWD along with a reference to its parent(s)
+ * A COMMIT never changes once it is made, so its SHA-1 is worked out once,
+ * when it is made, and saved along with it.
  * @author SEANJHANNON */
 public class Commit implements Serializable {
 
+    /** Pinned so commits written with Java serialization by older
+     * versions of gitlet can still be read after this class changes. */
+    private static final long serialVersionUID = 203262774429942785L;
+
+    /** Hashed in front of a commit's contents. Bump the number if the way
+     * commit ids are computed ever changes again. */
+    static final String ID_PREFIX = "commit 2\0";
+
+    /** Version of the layout commits are stored in; see toBytes. */
+    static final int FORMAT = 1;
+
     /** Holds the commit's message. Doesn't need to be unique. */
-    private String _message;
+    private final String _message;
+    /** The SHA-1 of the Tree holding a snapshot of the whole CWD. */
+    private final String _tree;
     /** Maps filenames to the SHA-1 of the blob holding a snapshot of its
-     * contents. */
-    private HashMap<String, String> _blobs;
+     * contents. Only set in commits made before there were trees; see
+     * legacyBlobs. */
+    private final HashMap<String, String> _blobs;
     /** Stores the SHA-1 of the COMMIT's parent. Null if initial commit. */
-    private String _parent;
+    private final String _parent;
     /** Stores the SHA-1 of the COMMIT's merge parent, if it has one. */
-    private String _mergeParent;
+    private final String _mergeParent;
     /** Stores the exact moment at which a COMMIT is initialized. */
-    private Date _timestamp;
+    private final Date _timestamp;
+    /** The SHA-1 of this COMMIT. Null only in commits written before it was
+     * saved, until getSHA is first called. */
+    private String _id;
 
 
     /** The constructor for a COMMIT object - does all the important setup.
      * @param message - the commit message
+     * @param parent - the parent
      * @param mergeparent - the merge parent
-     * @param parent - the parent */
-    public Commit(String message, String parent, String mergeparent) {
+     * @param tree - the sha1 of the tree of tracked files */
+    public Commit(String message, String parent, String mergeparent,
+                  String tree) {
+        boolean initial = Objects.equals(message, "initial commit");
         _message = message;
-        _timestamp = new Date();
-        _blobs = new HashMap<>();
+        _timestamp = initial ? new Date(0) : new Date();
+        _tree = tree;
+        _blobs = null;
+        _parent = initial ? null : parent;
+        _mergeParent = mergeparent;
+        _id = computeSHA();
+    }
+
+    /** Rebuilds OLD with new parents and tree but the same message and
+     * timestamp. Used when upgrading a repo changes the ids things are
+     * stored under.
+     * @param old - the commit being replaced
+     * @param parent - the new id of OLD's parent
+     * @param mergeparent - the new id of OLD's merge parent
+     * @param tree - the sha1 of the new tree */
+    Commit(Commit old, String parent, String mergeparent, String tree) {
+        _message = old._message;
+        _timestamp = old._timestamp;
+        _tree = tree;
+        _blobs = null;
         _parent = parent;
         _mergeParent = mergeparent;
+        _id = computeSHA();
+    }
 
-        if (Objects.equals(message, "initial commit")) {
-            _timestamp = new Date(0);
-            _parent = null;
-        }
+    /** Creates a commit from fields read back from disk.
+     * @param message - the commit message
+     * @param time - the timestamp, in ms
+     * @param tree - the sha1 of the tree of tracked files
+     * @param parent - the parent
+     * @param mergeparent - the merge parent
+     * @param id - the commit's sha1 */
+    private Commit(String message, long time, String tree, String parent,
+                   String mergeparent, String id) {
+        _message = message;
+        _timestamp = new Date(time);
+        _tree = tree;
+        _blobs = null;
+        _parent = parent;
+        _mergeParent = mergeparent;
+        _id = id;
+    }
+
+    /** Returns the commit as it is stored: a Codec record holding its id,
+     * parents, timestamp, tree and message. */
+    byte[] toBytes() {
+        Codec.Writer out = new Codec.Writer(Codec.COMMIT, FORMAT);
+        out.id(getSHA());
+        out.id(_parent);
+        out.id(_mergeParent);
+        out.signed(_timestamp.getTime());
+        out.id(_tree);
+        out.string(_message);
+        return out.toByteArray();
+    }
 
+    /** Reads a commit back from the bytes it was stored as, which may also
+     * be a commit written with Java serialization by an older version.
+     * @param bytes - what toBytes returned
+     * @return the commit */
+    static Commit parse(byte[] bytes) {
+        if (Codec.isLegacy(bytes)) {
+            return Utils.readObject(new ByteArrayInputStream(bytes),
+                    Commit.class);
+        }
+        Stats.add(Stats.OBJECTS_DECODED, 1);
+        Codec.Reader in = new Codec.Reader(bytes, Codec.COMMIT, FORMAT);
+        String id = in.id();
+        String parent = in.id();
+        String mergeParent = in.id();
+        long time = in.signed();
+        String tree = in.id();
+        return new Commit(in.string(), time, tree, parent, mergeParent, id);
     }
 
-    /** Generates the SHA-1 code for a commit.
+    /** Returns the SHA-1 code for a commit, which was worked out when it
+     * was made.
      * @return the sha */
     public String getSHA() {
-        return Utils.sha1(Utils.serialize(this), "commit");
+        if (_id == null) {
+            _id = computeSHA();
+        }
+        return _id;
+    }
+
+    /** Hashes the commit's parents, timestamp, tree and message. Each part
+     * is written out in a fixed order with its length where needed, so two
+     * different commits can't hash the same bytes.
+     * @return the sha */
+    private String computeSHA() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeField(out, "parent", _parent);
+        writeField(out, "merge", _mergeParent);
+        writeField(out, "time", Long.toString(_timestamp.getTime()));
+        writeField(out, "tree", _tree);
+        writeField(out, "message", _message);
+        return Utils.sha1(ID_PREFIX, out.toByteArray());
+    }
+
+    /** Writes field NAME with VALUE to OUT as its name, the length of VALUE
+     * in bytes, a colon and VALUE itself. Null values write just the name
+     * and a dash.
+     * @param out - collects the bytes to hash
+     * @param name - the field's name
+     * @param value - the field's value, or null */
+    private static void writeField(ByteArrayOutputStream out, String name,
+                                   String value) {
+        String header;
+        byte[] bytes = new byte[0];
+        if (value == null) {
+            header = name + " -\n";
+        } else {
+            bytes = value.getBytes(StandardCharsets.UTF_8);
+            header = name + " " + bytes.length + ":";
+        }
+        out.writeBytes(header.getBytes(StandardCharsets.UTF_8));
+        out.writeBytes(bytes);
     }
 
     /** Getter method for a COMMIT's message.
@@ -56,12 +182,19 @@ public class Commit implements Serializable {
     /** Getter method for a COMMIT's timestamp as a DATE object.
      * @return the date */
     public Date getTimeStampDate() {
-        return _timestamp;
+        return new Date(_timestamp.getTime());
+    }
+
+    /** Getter method for the SHA-1 of a COMMIT's tree.
+     * @return the tree */
+    public String getTree() {
+        return _tree;
     }
 
-    /** Getter method for a COMMIT's BLOB references.
-     * @return the HashMap of blobs*/
-    public HashMap<String, String> getBlobs() {
+    /** Returns the filename to blob mapping of a commit made before there
+     * were trees, for upgrading old repos. Null for every other commit.
+     * @return the map of filenames to blobs */
+    HashMap<String, String> legacyBlobs() {
         return _blobs;
     }
 
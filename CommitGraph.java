@@ -0,0 +1,310 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.Function;
+
+/** The shape of the commit history, kept apart from the commits themselves
+ * so that ancestry questions can be answered without reading any of them.
+ * Every commit gets a position, and the graph stores for each position the
+ * positions of its parents, its generation number (one more than that of
+ * its highest parent, starting from 1 for the initial commit) and its
+ * timestamp. A commit can never be an ancestor of one with a lower or equal
+ * generation number, which lets walks stop early.
+ *
+ * The file is "GCGR", a version number, and one fixed-size record per
+ * commit: its 20-byte id, the positions of its parent and merge parent
+ * (-1 for none), its generation and its timestamp in ms. Parents always
+ * come before their children, so new commits are simply appended. Commits
+ * missing from the file, e.g. in repos made before it existed, are added
+ * the first time they are asked about.
+ * @author SEANJHANNON */
+class CommitGraph {
+
+    /** Position of a parent that does not exist. */
+    static final int NONE = -1;
+
+    /** First bytes of every commit graph. */
+    private static final byte[] MAGIC = {'G', 'C', 'G', 'R'};
+    /** Version of the commit graph format. */
+    private static final int VERSION = 1;
+    /** Bytes before the first record. */
+    private static final int HEADER = 8;
+    /** Bytes in each record. */
+    private static final int RECORD = 40;
+    /** Number of bytes in a raw SHA-1. */
+    private static final int ID_BYTES = 20;
+
+    /** Where the graph is kept. */
+    private final File _file;
+    /** The id of the commit at each position. */
+    private String[] _ids;
+    /** Position of each commit's first parent. */
+    private int[] _parents;
+    /** Position of each commit's merge parent. */
+    private int[] _mergeParents;
+    /** Generation number of each commit. */
+    private int[] _generations;
+    /** Timestamp of each commit, in ms. */
+    private long[] _times;
+    /** Number of commits in the graph. */
+    private int _size;
+    /** The position of each commit, by id. */
+    private final HashMap<String, Integer> _positions = new HashMap<>();
+
+    /** Reads the graph in FILE. A missing or unreadable file gives an empty
+     * graph, and a record left half-written by a crash is cut off.
+     * @param file - where the graph is kept */
+    CommitGraph(File file) {
+        _file = file;
+        byte[] data = read(file);
+        int count = data.length < HEADER ? 0
+            : (data.length - HEADER) / RECORD;
+        grow(Math.max(count, 16));
+        ByteBuffer in = ByteBuffer.wrap(data);
+        if (!validHeader(in)) {
+            file.delete();
+            return;
+        }
+        byte[] raw = new byte[ID_BYTES];
+        for (int i = 0; i < count; i += 1) {
+            in.position(HEADER + i * RECORD);
+            in.get(raw);
+            int parent = in.getInt();
+            int mergeParent = in.getInt();
+            if (parent >= i || mergeParent >= i) {
+                file.delete();
+                _positions.clear();
+                _size = 0;
+                return;
+            }
+            store(Utils.toHex(raw), parent, mergeParent, in.getInt(),
+                    in.getLong());
+        }
+        if (data.length != HEADER + count * RECORD) {
+            truncate(HEADER + (long) count * RECORD);
+        }
+    }
+
+    /** Returns the number of commits in the graph. */
+    int size() {
+        return _size;
+    }
+
+    /** Returns true if the file still holds exactly the commits read in or
+     * added through this graph, i.e. no other process has added to it or
+     * thrown it away since. */
+    boolean isCurrent() {
+        long expected = _size == 0 ? 0 : HEADER + (long) _size * RECORD;
+        return _file.length() == expected;
+    }
+
+    /** Returns the position of commit ID, or NONE if it is null or not in
+     * the graph.
+     * @param id - the sha1, or null */
+    int indexOf(String id) {
+        return id == null ? NONE : _positions.getOrDefault(id, NONE);
+    }
+
+    /** Returns the id of the commit at position I.
+     * @param i - the position */
+    String id(int i) {
+        return _ids[i];
+    }
+
+    /** Returns the position of the first parent of commit I, or NONE.
+     * @param i - the position */
+    int parent(int i) {
+        return _parents[i];
+    }
+
+    /** Returns the position of the merge parent of commit I, or NONE.
+     * @param i - the position */
+    int mergeParent(int i) {
+        return _mergeParents[i];
+    }
+
+    /** Returns the generation number of commit I.
+     * @param i - the position */
+    int generation(int i) {
+        return _generations[i];
+    }
+
+    /** Returns the timestamp of commit I, in ms.
+     * @param i - the position */
+    long time(int i) {
+        return _times[i];
+    }
+
+    /** Returns the position of commit ID, first adding it and any of its
+     * ancestors that are missing. New records are appended to the file.
+     * @param id - the sha1
+     * @param commits - loads the commits that have to be added
+     * @return its position */
+    int ensure(String id, Function<String, Commit> commits) {
+        if (_positions.containsKey(id)) {
+            return _positions.get(id);
+        }
+        ByteArrayOutputStream added = new ByteArrayOutputStream();
+        HashMap<String, Commit> loaded = new HashMap<>();
+        ArrayDeque<String> todo = new ArrayDeque<>();
+        todo.push(id);
+        while (!todo.isEmpty()) {
+            String next = todo.peek();
+            if (_positions.containsKey(next)) {
+                todo.pop();
+                continue;
+            }
+            Commit c = loaded.computeIfAbsent(next, commits);
+            boolean ready = true;
+            for (String p : new String[] {c.getParent(),
+                                          c.getMergeParent()}) {
+                if (p != null && !_positions.containsKey(p)) {
+                    todo.push(p);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                todo.pop();
+                loaded.remove(next);
+                append(added, next, c);
+            }
+        }
+        write(added.toByteArray());
+        return _positions.get(id);
+    }
+
+    /** Adds commit C with sha1 ID, whose parents are already in the graph,
+     * and writes its record to OUT.
+     * @param out - collects the new records
+     * @param id - the sha1
+     * @param c - the commit */
+    private void append(ByteArrayOutputStream out, String id, Commit c) {
+        int parent = indexOf(c.getParent());
+        int mergeParent = indexOf(c.getMergeParent());
+        int generation = 1;
+        for (int p : new int[] {parent, mergeParent}) {
+            if (p != NONE) {
+                generation = Math.max(generation, _generations[p] + 1);
+            }
+        }
+        long time = c.getTimeStampDate().getTime();
+        store(id, parent, mergeParent, generation, time);
+        DataOutputStream record = new DataOutputStream(out);
+        try {
+            record.write(IdIndex.toBytes(id));
+            record.writeInt(parent);
+            record.writeInt(mergeParent);
+            record.writeInt(generation);
+            record.writeLong(time);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Adds a commit to the in-memory graph.
+     * @param id - the sha1
+     * @param parent - position of its first parent
+     * @param mergeParent - position of its merge parent
+     * @param generation - its generation number
+     * @param time - its timestamp */
+    private void store(String id, int parent, int mergeParent,
+                       int generation, long time) {
+        if (_size == _ids.length) {
+            grow(_size * 2);
+        }
+        _ids[_size] = id;
+        _parents[_size] = parent;
+        _mergeParents[_size] = mergeParent;
+        _generations[_size] = generation;
+        _times[_size] = time;
+        _positions.put(id, _size);
+        _size += 1;
+    }
+
+    /** Makes room for CAPACITY commits.
+     * @param capacity - the new capacity */
+    private void grow(int capacity) {
+        if (_ids == null) {
+            _ids = new String[capacity];
+            _parents = new int[capacity];
+            _mergeParents = new int[capacity];
+            _generations = new int[capacity];
+            _times = new long[capacity];
+            return;
+        }
+        _ids = Arrays.copyOf(_ids, capacity);
+        _parents = Arrays.copyOf(_parents, capacity);
+        _mergeParents = Arrays.copyOf(_mergeParents, capacity);
+        _generations = Arrays.copyOf(_generations, capacity);
+        _times = Arrays.copyOf(_times, capacity);
+    }
+
+    /** Appends RECORDS to the file, starting it with a header if it is
+     * new.
+     * @param records - the bytes of the new records */
+    private void write(byte[] records) {
+        if (records.length == 0) {
+            return;
+        }
+        boolean fresh = !_file.isFile() || _file.length() == 0;
+        try (FileOutputStream out = new FileOutputStream(_file, true)) {
+            if (fresh) {
+                out.write(ByteBuffer.allocate(HEADER).put(MAGIC)
+                        .putInt(VERSION).array());
+            }
+            out.write(records);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Cuts the file down to LENGTH bytes.
+     * @param length - the new length */
+    private void truncate(long length) {
+        try (FileChannel channel = FileChannel.open(_file.toPath(),
+                StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns true if IN starts with the header of a graph this code can
+     * read.
+     * @param in - the contents of the file */
+    private static boolean validHeader(ByteBuffer in) {
+        if (in.remaining() < HEADER) {
+            return false;
+        }
+        for (byte b : MAGIC) {
+            if (in.get() != b) {
+                return false;
+            }
+        }
+        return in.getInt() == VERSION;
+    }
+
+    /** Returns the contents of FILE, or nothing if it does not exist.
+     * @param file - the file */
+    private static byte[] read(File file) {
+        if (!file.isFile()) {
+            return new byte[0];
+        }
+        try {
+            return Files.readAllBytes(file.toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
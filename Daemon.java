@@ -0,0 +1,289 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/** Serves gitlet commands for one repo from a single long-running JVM, so
+ * that scripts running many commands in a row don't pay for starting a JVM
+ * and reading the repo back in every time. Started with
+ *      java gitlet.Main daemon
+ * in the root of a repo, after which it listens on .gitlet/daemon.sock and
+ * every gitlet command run in that directory is sent there. If no daemon is
+ * running, or the socket is left over from one that died, commands simply
+ * run in their own process as before. "daemon stop" shuts it down.
+ *
+ * The Repo is kept from one command to the next, so commits, trees and the
+ * files of each tree stay cached; anything another process could have
+ * changed is read again before each command (see Repo.refresh). Commands
+ * are served one at a time, in the order they arrive.
+ *
+ * A request is the number of arguments followed by each one as modified
+ * UTF-8. The reply is a series of frames, each a type byte, a length and
+ * that many bytes: OUT and ERR frames carry what the command printed, and a
+ * final EXIT frame carries the exit status instead of a length.
+ * @author SEANJHANNON */
+class Daemon {
+
+    /** Frame type of standard output. */
+    private static final byte OUT = 1;
+    /** Frame type of standard error. */
+    private static final byte ERR = 2;
+    /** Frame type of the exit status, which ends a reply. */
+    private static final byte EXIT = 3;
+    /** Returned by forward when the command wasn't sent anywhere. */
+    static final int NOT_SENT = -1;
+
+    /** The repo being served. */
+    private final Repo _repo;
+    /** The socket file. */
+    private final File _socket;
+
+    /** Creates a daemon for the repo in the CWD. Its log output goes
+     * through System.out, which each command points at its client. */
+    private Daemon() {
+        _repo = new Repo(new File(System.getProperty("user.dir")),
+            new OutputStream() {
+                @Override
+                public void write(int b) {
+                    System.out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    System.out.write(b, off, len);
+                }
+
+                @Override
+                public void flush() {
+                    System.out.flush();
+                }
+            });
+        _socket = socketFile(_repo.getGitRepo());
+    }
+
+    /** Returns the socket of the daemon for the repo in GITLETREPO.
+     * @param gitletRepo - the .gitlet directory */
+    private static File socketFile(File gitletRepo) {
+        return Utils.join(gitletRepo, "daemon.sock");
+    }
+
+    /** Serves commands for the repo in the CWD until told to stop. */
+    static void serve() {
+        new Daemon().listen();
+    }
+
+    /** Sends the command in ARGS to the daemon serving the repo in the
+     * CWD, copies what it prints to System.out and System.err, and returns
+     * its exit status. Returns NOT_SENT, without doing anything, if there
+     * is no daemon to send it to or the command is one that has to run
+     * here: init, or starting a daemon.
+     * @param args - the command line, --stats and --trace included */
+    static int forward(String... args) {
+        int i = 0;
+        while (i < args.length && args[i].startsWith("--")) {
+            i += args[i].equals("--trace") ? 2 : 1;
+        }
+        if (i >= args.length || args[i].equals("init")
+                || args[i].equals("daemon") && i + 1 == args.length) {
+            return NOT_SENT;
+        }
+        File socket = socketFile(Utils.join(System.getProperty("user.dir"),
+                ".gitlet"));
+        if (!socket.exists()) {
+            return NOT_SENT;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(
+                    UnixDomainSocketAddress.of(socket.toPath()));
+        } catch (IOException excp) {
+            return NOT_SENT;
+        }
+        try (SocketChannel open = channel) {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(open)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(open), Utils.BUFFER_SIZE));
+            byte[] buffer = new byte[Utils.BUFFER_SIZE];
+            while (true) {
+                byte type = in.readByte();
+                int length = in.readInt();
+                if (type == EXIT) {
+                    System.out.flush();
+                    return length;
+                }
+                PrintStream target = type == ERR ? System.err : System.out;
+                while (length > 0) {
+                    int n = in.read(buffer, 0, Math.min(length,
+                            buffer.length));
+                    if (n < 0) {
+                        throw new IOException("reply cut short");
+                    }
+                    target.write(buffer, 0, n);
+                    length -= n;
+                }
+            }
+        } catch (IOException excp) {
+            System.err.println("Lost the connection to the gitlet daemon.");
+            return 1;
+        }
+    }
+
+    /** Returns true if a daemon answers on _socket, rather than it being
+     * left behind by one that died. */
+    private boolean answers() {
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(_socket.toPath()))
+                .close();
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Listens on _socket and serves one command at a time until one of
+     * them is "daemon stop". */
+    private void listen() {
+        if (_socket.exists()) {
+            if (answers()) {
+                throw new GitletException("A gitlet daemon is already "
+                        + "running.");
+            }
+            _socket.delete();
+        }
+        Thread cleanup = new Thread(_socket::delete);
+        Runtime.getRuntime().addShutdownHook(cleanup);
+        try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(_socket.toPath()));
+            System.out.println("Gitlet daemon listening on "
+                    + _socket.getPath());
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    running = handle(client);
+                } catch (IOException excp) {
+                    continue;
+                }
+            }
+        } catch (IOException excp) {
+            throw new GitletException("Could not start the gitlet daemon: "
+                    + excp.getMessage());
+        } finally {
+            _socket.delete();
+            Runtime.getRuntime().removeShutdownHook(cleanup);
+        }
+    }
+
+    /** Reads one command from CLIENT, runs it with System.out and
+     * System.err sent back to CLIENT, and sends its exit status.
+     * @param client - the connection
+     * @return false if the command was "daemon stop"
+     * @throws IOException if CLIENT goes away */
+    private boolean handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(client)));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        DataOutputStream reply = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(client), Utils.BUFFER_SIZE));
+        PrintStream out = new PrintStream(new Frames(reply, OUT), false,
+                StandardCharsets.UTF_8);
+        PrintStream err = new PrintStream(new Frames(reply, ERR), false,
+                StandardCharsets.UTF_8);
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        System.setOut(out);
+        System.setErr(err);
+        int status = 0;
+        boolean stop = false;
+        try {
+            String[] rest = Stats.parseOptions(args);
+            if (rest.length == 2 && rest[0].equals("daemon")
+                    && rest[1].equals("stop")) {
+                System.out.println("Gitlet daemon stopped.");
+                stop = true;
+            } else {
+                _repo.refresh();
+                Main.run(_repo, rest);
+            }
+        } catch (GitletException excp) {
+            System.err.printf("%s%n", excp.getMessage());
+        } catch (RuntimeException excp) {
+            System.err.printf("%s%n", excp.getMessage());
+            status = 1;
+        } finally {
+            Stats.finish();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        out.flush();
+        err.flush();
+        synchronized (reply) {
+            reply.writeByte(EXIT);
+            reply.writeInt(status);
+            reply.flush();
+        }
+        return !stop;
+    }
+
+    /** Sends everything written to it to a client as frames of one
+     * type. */
+    private static class Frames extends OutputStream {
+        /** Where the frames go; shared by the frames of every type. */
+        private final DataOutputStream _reply;
+        /** The type of frame. */
+        private final byte _type;
+
+        /** Creates a stream of TYPE frames onto REPLY.
+         * @param reply - the connection to the client
+         * @param type - OUT or ERR */
+        Frames(DataOutputStream reply, byte type) {
+            _reply = reply;
+            _type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (_reply) {
+                _reply.writeByte(_type);
+                _reply.writeInt(len);
+                _reply.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (_reply) {
+                _reply.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Encodes one version of a file as a list of edits against another, so
+ * that similar versions only take up the space of their differences. A
+ * delta is a sequence of instructions, each either
+ *     COPY   - a base offset and a length to copy from the base, or
+ *     INSERT - a length followed by that many literal bytes,
+ * preceded by the length of the result. All numbers are varints.
+ * @author SEANJHANNON */
+class Delta {
+
+    /** Instruction that copies a range of the base. */
+    private static final int COPY = 0;
+    /** Instruction that inserts literal bytes. */
+    private static final int INSERT = 1;
+    /** Size of the blocks of the base we index and look for in the
+     * target. Matches shorter than this are never found. */
+    private static final int BLOCK = 16;
+    /** Multiplier of the polynomial hash blocks are hashed with. */
+    private static final int PRIME = 31;
+    /** What the first byte of a block is multiplied by in its hash,
+     * PRIME to the power BLOCK - 1. */
+    private static final int LEAD;
+
+    static {
+        int lead = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            lead *= PRIME;
+        }
+        LEAD = lead;
+    }
+
+    /** Returns a delta that turns BASE into TARGET. The hash of the block
+     * at each offset of TARGET is rolled on from the one before it, as in
+     * git's diff-delta, so each byte is hashed in and out once instead of
+     * BLOCK times.
+     * @param base - the version we have
+     * @param target - the version we want
+     * @return the encoded delta */
+    static byte[] create(byte[] base, byte[] target) {
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, target.length);
+        int pending = 0;
+        int i = 0;
+        int h = BLOCK <= target.length ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            Integer at = blocks.get(h);
+            if (at == null || !Arrays.equals(base, at, at + BLOCK,
+                                             target, i, i + BLOCK)) {
+                if (i + BLOCK < target.length) {
+                    h = (h - target[i] * LEAD) * PRIME + target[i + BLOCK];
+                }
+                i += 1;
+                continue;
+            }
+            int start = at;
+            int from = i;
+            while (start > 0 && from > pending
+                    && base[start - 1] == target[from - 1]) {
+                start -= 1;
+                from -= 1;
+            }
+            int end = at + BLOCK;
+            int to = i + BLOCK;
+            while (end < base.length && to < target.length
+                    && base[end] == target[to]) {
+                end += 1;
+                to += 1;
+            }
+            insert(out, target, pending, from);
+            out.write(COPY);
+            writeVarint(out, start);
+            writeVarint(out, end - start);
+            pending = to;
+            i = to;
+            if (i + BLOCK <= target.length) {
+                h = hash(target, i);
+            }
+        }
+        insert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Applies DELTA to BASE.
+     * @param base - the version the delta was made against
+     * @param delta - the encoded delta
+     * @return the version the delta describes */
+    static byte[] apply(byte[] base, byte[] delta) {
+        ByteBuffer in = ByteBuffer.wrap(delta);
+        byte[] result = new byte[(int) readVarint(in)];
+        int pos = 0;
+        while (in.hasRemaining()) {
+            int op = in.get();
+            if (op == COPY) {
+                int start = (int) readVarint(in);
+                int len = (int) readVarint(in);
+                System.arraycopy(base, start, result, pos, len);
+                pos += len;
+            } else if (op == INSERT) {
+                int len = (int) readVarint(in);
+                in.get(result, pos, len);
+                pos += len;
+            } else {
+                throw new IllegalArgumentException("corrupt delta");
+            }
+        }
+        return result;
+    }
+
+    /** Writes an INSERT of TARGET[FROM..TO) to OUT, if the range is not
+     * empty.
+     * @param out - the delta being built
+     * @param target - the version being encoded
+     * @param from - start of the range
+     * @param to - end of the range */
+    private static void insert(ByteArrayOutputStream out, byte[] target,
+                               int from, int to) {
+        if (to > from) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /** Returns a hash of the BLOCK bytes of DATA starting at START.
+     * @param data - the bytes
+     * @param start - where the block starts */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            h = PRIME * h + data[i];
+        }
+        return h;
+    }
+
+    /** Writes the non-negative VALUE to OUT seven bits at a time, low bits
+     * first, with the high bit of each byte set if more follow.
+     * @param out - where the bytes go
+     * @param value - the number */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Reads a number written by writeVarint from IN.
+     * @param in - the bytes, positioned at the number
+     * @return the number */
+    static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
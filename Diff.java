@@ -0,0 +1,434 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** Finds the lines that differ between two files, with the algorithm from
+ * Eugene Myers' "An O(ND) Difference Algorithm and Its Variations": the
+ * linear space version, which splits the problem at the middle of an
+ * optimal path and solves each half on its own.
+ *
+ * Files are never turned into Strings. A file is its bytes plus the offset
+ * where each line starts (see Lines), and before diffing every distinct
+ * line is given a number, so that lines are compared as ints. Lines
+ * include their '\n', so a last line without one differs from the same
+ * line with one. Lines the two files start or end with in common are
+ * stripped before the search. A search is given up once its edit distance
+ * passes a limit that shrinks as the region grows; the region is then
+ * reported as changed as a whole, which keeps the time and memory taken by
+ * files of any size bounded.
+ * @author SEANJHANNON */
+class Diff {
+
+    /** Edit distance a search may always reach before giving up. */
+    private static final int MIN_COST = 256;
+    /** Bound on the work of a single search, in steps along diagonals. */
+    private static final long MAX_WORK = 1L << 26;
+    /** Files with a zero byte in their first BINARY_CHECK bytes are treated
+     * as binary. */
+    private static final int BINARY_CHECK = 8000;
+    /** Follows a line without a newline in a unified diff. */
+    private static final byte[] NO_NEWLINE =
+        "\n\\ No newline at end of file\n".getBytes(StandardCharsets.UTF_8);
+
+    /** The lines of a file, as offsets into its bytes. */
+    static class Lines {
+        /** The contents of the file. */
+        private final byte[] _data;
+        /** Offset where each line starts, followed by the file's length. */
+        private final int[] _starts;
+
+        /** Splits DATA into lines.
+         * @param data - the contents of a file */
+        Lines(byte[] data) {
+            _data = data;
+            int count = 0;
+            for (byte b : data) {
+                if (b == '\n') {
+                    count += 1;
+                }
+            }
+            if (data.length > 0 && data[data.length - 1] != '\n') {
+                count += 1;
+            }
+            _starts = new int[count + 1];
+            int line = 1;
+            for (int i = 0; i < data.length && line < count; i += 1) {
+                if (data[i] == '\n') {
+                    _starts[line] = i + 1;
+                    line += 1;
+                }
+            }
+            _starts[count] = data.length;
+        }
+
+        /** Returns the number of lines. */
+        int size() {
+            return _starts.length - 1;
+        }
+
+        /** Returns the offset where line I starts, or the length of the
+         * file if I is size().
+         * @param i - the line */
+        int start(int i) {
+            return _starts[i];
+        }
+
+        /** Returns true if line I ends in '\n'.
+         * @param i - the line */
+        boolean terminated(int i) {
+            return _data[_starts[i + 1] - 1] == '\n';
+        }
+
+        /** Returns true if the file looks binary rather than text. */
+        boolean binary() {
+            for (int i = 0; i < Math.min(_data.length, BINARY_CHECK); i += 1) {
+                if (_data[i] == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Writes lines FROM up to TO to OUT.
+         * @param out - where they go
+         * @param from - the first line
+         * @param to - the line after the last
+         * @throws IOException if OUT fails */
+        void write(OutputStream out, int from, int to) throws IOException {
+            out.write(_data, _starts[from], _starts[to] - _starts[from]);
+        }
+    }
+
+    /** A run of lines that differ: lines [aStart, aEnd) of the old file
+     * were replaced by lines [bStart, bEnd) of the new one. Either run may
+     * be empty. */
+    static class Hunk {
+        /** First line in the old file. */
+        private final int _aStart;
+        /** Line after the last in the old file. */
+        private final int _aEnd;
+        /** First line in the new file. */
+        private final int _bStart;
+        /** Line after the last in the new file. */
+        private final int _bEnd;
+
+        /** Creates a hunk replacing [ASTART, AEND) with [BSTART, BEND).
+         * @param aStart - first old line
+         * @param aEnd - line after the last old line
+         * @param bStart - first new line
+         * @param bEnd - line after the last new line */
+        Hunk(int aStart, int aEnd, int bStart, int bEnd) {
+            _aStart = aStart;
+            _aEnd = aEnd;
+            _bStart = bStart;
+            _bEnd = bEnd;
+        }
+
+        /** Returns the first line in the old file. */
+        int aStart() {
+            return _aStart;
+        }
+
+        /** Returns the line after the last in the old file. */
+        int aEnd() {
+            return _aEnd;
+        }
+
+        /** Returns the first line in the new file. */
+        int bStart() {
+            return _bStart;
+        }
+
+        /** Returns the line after the last in the new file. */
+        int bEnd() {
+            return _bEnd;
+        }
+    }
+
+    /** Writes the changes from A to B to OUT as the hunks of a unified
+     * diff: each one a header giving the lines it covers in both files,
+     * followed by its lines marked ' ' if unchanged, '-' if only in A and
+     * '+' if only in B. Every change is shown with up to CONTEXT unchanged
+     * lines around it, and changes closer together than that share a hunk.
+     * @param a - the old file
+     * @param b - the new file
+     * @param context - how many unchanged lines to show around changes
+     * @param out - where the hunks go
+     * @throws IOException if OUT fails */
+    static void writeUnified(Lines a, Lines b, int context, OutputStream out)
+        throws IOException {
+        int[][] ids = intern(a, b);
+        List<Hunk> hunks = diff(ids[0], ids[1]);
+        int i = 0;
+        while (i < hunks.size()) {
+            int j = i;
+            while (j + 1 < hunks.size()
+                   && hunks.get(j + 1)._aStart - hunks.get(j)._aEnd
+                      <= 2 * context) {
+                j += 1;
+            }
+            Hunk first = hunks.get(i);
+            Hunk last = hunks.get(j);
+            int aLo = Math.max(0, first._aStart - context);
+            int aHi = Math.min(a.size(), last._aEnd + context);
+            int bLo = first._bStart - (first._aStart - aLo);
+            int bHi = last._bEnd + (aHi - last._aEnd);
+            out.write(("@@ -" + range(aLo, aHi) + " +" + range(bLo, bHi)
+                    + " @@\n").getBytes(StandardCharsets.UTF_8));
+            int done = aLo;
+            for (int k = i; k <= j; k += 1) {
+                Hunk h = hunks.get(k);
+                writeLines(out, ' ', a, done, h._aStart);
+                writeLines(out, '-', a, h._aStart, h._aEnd);
+                writeLines(out, '+', b, h._bStart, h._bEnd);
+                done = h._aEnd;
+            }
+            writeLines(out, ' ', a, done, aHi);
+            i = j + 1;
+        }
+    }
+
+    /** Returns lines [LO, HI) as a unified diff header gives them: the
+     * first line counting from 1, or the line before if there are none,
+     * and how many there are unless there is exactly one.
+     * @param lo - the first line, counting from 0
+     * @param hi - the line after the last */
+    private static String range(int lo, int hi) {
+        int count = hi - lo;
+        int first = count == 0 ? lo : lo + 1;
+        return count == 1 ? Integer.toString(first) : first + "," + count;
+    }
+
+    /** Writes lines [FROM, TO) of FILE to OUT, each after MARK.
+     * @param out - where they go
+     * @param mark - ' ', '-' or '+'
+     * @param file - the file
+     * @param from - the first line
+     * @param to - the line after the last
+     * @throws IOException if OUT fails */
+    private static void writeLines(OutputStream out, char mark, Lines file,
+                                   int from, int to) throws IOException {
+        for (int i = from; i < to; i += 1) {
+            out.write(mark);
+            file.write(out, i, i + 1);
+            if (!file.terminated(i)) {
+                out.write(NO_NEWLINE);
+            }
+        }
+    }
+
+    /** Numbers the lines of every file in FILES so that equal lines, in
+     * any of them, get the same number.
+     * @param files - the files
+     * @return the number of each line of each file */
+    static int[][] intern(Lines... files) {
+        HashMap<Line, Integer> numbers = new HashMap<>();
+        int[][] result = new int[files.length][];
+        for (int f = 0; f < files.length; f += 1) {
+            Lines lines = files[f];
+            result[f] = new int[lines.size()];
+            for (int i = 0; i < lines.size(); i += 1) {
+                Line line = new Line(lines._data, lines.start(i),
+                        lines.start(i + 1));
+                Integer n = numbers.putIfAbsent(line, numbers.size());
+                result[f][i] = n == null ? numbers.size() - 1 : n;
+            }
+        }
+        return result;
+    }
+
+    /** Returns the hunks that turn the lines numbered A into those numbered
+     * B, in order, with at least one equal line between any two of them.
+     * @param a - the old file, as numbered by intern
+     * @param b - the new file, as numbered by intern */
+    static List<Hunk> diff(int[] a, int[] b) {
+        int size = a.length + b.length + 2;
+        Diff search = new Diff(a, b, new int[2 * size + 1],
+                new int[2 * size + 1], size);
+        search.diff(0, a.length, 0, b.length);
+        return search._hunks;
+    }
+
+    /** The old file. */
+    private final int[] _a;
+    /** The new file. */
+    private final int[] _b;
+    /** Furthest x reached on each diagonal by the forward search. */
+    private final int[] _forward;
+    /** Furthest distance from the end reached on each diagonal by the
+     * backward search. */
+    private final int[] _backward;
+    /** Index of diagonal 0 in _forward and _backward. */
+    private final int _center;
+    /** The hunks found so far. */
+    private final List<Hunk> _hunks = new ArrayList<>();
+
+    /** Sets up a search of A against B.
+     * @param a - the old file
+     * @param b - the new file
+     * @param forward - room for the forward search
+     * @param backward - room for the backward search
+     * @param center - index of diagonal 0 in both */
+    private Diff(int[] a, int[] b, int[] forward, int[] backward,
+                 int center) {
+        _a = a;
+        _b = b;
+        _forward = forward;
+        _backward = backward;
+        _center = center;
+    }
+
+    /** Adds the hunks between lines [ALO, AHI) of _a and [BLO, BHI) of _b.
+     * @param aLo - first old line
+     * @param aHi - line after the last old line
+     * @param bLo - first new line
+     * @param bHi - line after the last new line */
+    private void diff(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && _a[aLo] == _b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && _a[aHi - 1] == _b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            if (aLo < aHi || bLo < bHi) {
+                add(aLo, aHi, bLo, bHi);
+            }
+            return;
+        }
+        int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+        if (snake == null) {
+            add(aLo, aHi, bLo, bHi);
+            return;
+        }
+        diff(aLo, snake[0], bLo, snake[1]);
+        diff(snake[2], aHi, snake[3], bHi);
+    }
+
+    /** Adds a hunk, joining it to the last one if they touch.
+     * @param aLo - first old line
+     * @param aHi - line after the last old line
+     * @param bLo - first new line
+     * @param bHi - line after the last new line */
+    private void add(int aLo, int aHi, int bLo, int bHi) {
+        if (!_hunks.isEmpty()) {
+            Hunk last = _hunks.get(_hunks.size() - 1);
+            if (last._aEnd == aLo && last._bEnd == bLo) {
+                _hunks.set(_hunks.size() - 1,
+                        new Hunk(last._aStart, aHi, last._bStart, bHi));
+                return;
+            }
+        }
+        _hunks.add(new Hunk(aLo, aHi, bLo, bHi));
+    }
+
+    /** Finds the middle snake of an optimal path between lines [ALO, AHI)
+     * of _a and [BLO, BHI) of _b, which must both be non-empty and differ
+     * in their first and last lines, by searching forward from the start
+     * and backward from the end at once until the two meet.
+     * @param aLo - first old line
+     * @param aHi - line after the last old line
+     * @param bLo - first new line
+     * @param bHi - line after the last new line
+     * @return the lines of _a and _b where the snake starts and the lines
+     *         where it ends, or null if the search was given up */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int limit = (int) Math.max(MIN_COST, MAX_WORK / (n + m));
+        int max = Math.min((n + m + 1) / 2, limit);
+        int[] vf = _forward;
+        int[] vb = _backward;
+        int c = _center;
+        vf[c + 1] = 0;
+        vb[c + 1] = 0;
+        for (int d = 0; d <= max; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || k != d && vf[c + k - 1] < vf[c + k + 1]
+                    ? vf[c + k + 1] : vf[c + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && _a[aLo + x] == _b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                vf[c + k] = x;
+                if (odd && k >= delta - (d - 1) && k <= delta + (d - 1)
+                        && x + vb[c + delta - k] >= n) {
+                    return new int[] {aLo + x0, bLo + y0, aLo + x, bLo + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || k != d && vb[c + k - 1] < vb[c + k + 1]
+                    ? vb[c + k + 1] : vb[c + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m
+                           && _a[aHi - 1 - x] == _b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                vb[c + k] = x;
+                if (!odd && delta - k >= -d && delta - k <= d
+                        && x + vf[c + delta - k] >= n) {
+                    return new int[] {aHi - x, bHi - y, aHi - x0, bHi - y0};
+                }
+            }
+        }
+        return null;
+    }
+
+    /** A line of a file, compared by its bytes. */
+    private static class Line {
+        /** The file's contents. */
+        private final byte[] _data;
+        /** Offset of the line's first byte. */
+        private final int _start;
+        /** Offset after the line's last byte. */
+        private final int _end;
+        /** The hash of the line's bytes. */
+        private final int _hash;
+
+        /** Creates the line [START, END) of DATA.
+         * @param data - the file's contents
+         * @param start - the first byte
+         * @param end - the byte after the last */
+        Line(byte[] data, int start, int end) {
+            _data = data;
+            _start = start;
+            _end = end;
+            int h = 1;
+            for (int i = start; i < end; i += 1) {
+                h = 31 * h + data[i];
+            }
+            _hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Line)) {
+                return false;
+            }
+            Line other = (Line) o;
+            return _hash == other._hash && Arrays.equals(_data, _start, _end,
+                    other._data, other._start, other._end);
+        }
+    }
+}
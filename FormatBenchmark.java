@@ -0,0 +1,99 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/** Compares the Codec format against Java serialization for the objects
+ * gitlet keeps on disk. Can be invoked as follows:
+ *      java gitlet.FormatBenchmark [COMMITS [FILES]]
+ *  which builds COMMITS synthetic commits (10000 by default) and a staging
+ *  area with FILES files staged (1000 by default), then prints the average
+ *  size of each object and how long it takes to write and read back in each
+ *  format. Every timing is the best of ROUNDS rounds, after a warm-up round.
+ *  @author SEANJHANNON */
+public class FormatBenchmark {
+
+    /** Number of timed rounds. */
+    private static final int ROUNDS = 5;
+
+    /** Runs the benchmark.
+     * @param args - the number of commits and of staged files */
+    public static void main(String... args) {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int files = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        List<Commit> history = new ArrayList<>();
+        String parent = null;
+        for (int i = 0; i < commits; i += 1) {
+            Commit c = new Commit("commit number " + i + " of the benchmark",
+                    parent, i % 10 == 9 ? Utils.sha1("merge", "" + i) : null,
+                    Utils.sha1("tree", "" + i));
+            history.add(c);
+            parent = c.getSHA();
+        }
+        StagingArea stage = new StagingArea();
+        for (int i = 0; i < files; i += 1) {
+            stage.add(String.format("src/dir%d/file%d.txt", i % 20, i),
+                    Utils.sha1("blob", "" + i));
+            if (i % 4 == 0) {
+                stage.remove(String.format("old/file%d.txt", i));
+            }
+        }
+        List<StagingArea> stages = List.of(stage);
+
+        System.out.printf("%-8s %-6s %8s %10s %14s %14s%n", "object",
+                "format", "count", "bytes/obj", "write ns/obj",
+                "read ns/obj");
+        run("commit", "java", history, Utils::serialize,
+            bytes -> Utils.readObject(new ByteArrayInputStream(bytes),
+                    Commit.class));
+        run("commit", "codec", history, Commit::toBytes, Commit::parse);
+        run("stage", "java", stages, Utils::serialize,
+            bytes -> Utils.readObject(new ByteArrayInputStream(bytes),
+                    StagingArea.class));
+        run("stage", "codec", stages, StagingArea::toBytes,
+            StagingArea::parse);
+    }
+
+    /** Times writing every object in OBJECTS with WRITE and reading each
+     * one back with READ, and prints a line of results.
+     * @param name - what kind of object these are
+     * @param format - the name of the format
+     * @param objects - the objects to write
+     * @param write - turns an object into bytes
+     * @param read - turns bytes back into an object
+     * @param <T> - the type of object */
+    private static <T> void run(String name, String format, List<T> objects,
+                                Function<T, byte[]> write,
+                                Function<byte[], T> read) {
+        List<byte[]> encoded = new ArrayList<>();
+        long size = 0;
+        for (T obj : objects) {
+            byte[] bytes = write.apply(obj);
+            encoded.add(bytes);
+            size += bytes.length;
+        }
+        long bestWrite = Long.MAX_VALUE;
+        long bestRead = Long.MAX_VALUE;
+        for (int round = 0; round <= ROUNDS; round += 1) {
+            long start = System.nanoTime();
+            for (T obj : objects) {
+                write.apply(obj);
+            }
+            long middle = System.nanoTime();
+            for (byte[] bytes : encoded) {
+                read.apply(bytes);
+            }
+            long end = System.nanoTime();
+            if (round > 0) {
+                bestWrite = Math.min(bestWrite, middle - start);
+                bestRead = Math.min(bestRead, end - middle);
+            }
+        }
+        int n = objects.size();
+        System.out.printf("%-8s %-6s %8d %10d %14d %14d%n", name, format, n,
+                size / n, bestWrite / n, bestRead / n);
+    }
+}
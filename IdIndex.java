@@ -0,0 +1,245 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** A sorted list of object ids kept on disk and memory-mapped, so that
+ * looking up an id or every id starting with some prefix is a binary search
+ * that only touches a handful of pages. Each id may carry a long, which for
+ * the index of a Pack is the offset of the object in the pack.
+ *
+ * The file is "GIDX", a version number, a fan-out table of 256 ints where
+ * entry B counts the ids whose first byte is at most B, the sorted ids as
+ * 20 raw bytes each, and finally the long for each id.
+ * @author SEANJHANNON */
+class IdIndex {
+
+    /** First bytes of every index. */
+    private static final byte[] MAGIC = {'G', 'I', 'D', 'X'};
+    /** Version of the index format. */
+    private static final int VERSION = 1;
+    /** Number of bytes in a raw SHA-1. */
+    private static final int ID_BYTES = 20;
+    /** Number of entries in the fan-out table. */
+    private static final int FANOUT = 256;
+    /** Offset of the fan-out table. */
+    private static final int FANOUT_START = 8;
+    /** Offset of the sorted ids. */
+    private static final int IDS_START = FANOUT_START + FANOUT * 4;
+
+    /** Digits used to print ids. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** The mapped index file. */
+    private final MappedByteBuffer _index;
+    /** Number of ids in the index. */
+    private final int _count;
+
+    /** Opens the index in FILE.
+     * @param file - a file written by write */
+    IdIndex(File file) {
+        _index = map(file);
+        for (int i = 0; i < MAGIC.length; i += 1) {
+            if (_index.get(i) != MAGIC[i]) {
+                throw new IllegalArgumentException("not a gitlet index");
+            }
+        }
+        if (_index.getInt(MAGIC.length) != VERSION) {
+            throw new IllegalArgumentException("unknown index version");
+        }
+        _count = fanout(FANOUT - 1);
+    }
+
+    /** Returns the number of ids in the index. */
+    int size() {
+        return _count;
+    }
+
+    /** Returns the Ith id in sorted order.
+     * @param i - the position */
+    String idAt(int i) {
+        char[] id = new char[Utils.UID_LENGTH];
+        for (int k = 0; k < ID_BYTES; k += 1) {
+            int b = _index.get(IDS_START + i * ID_BYTES + k) & 0xff;
+            id[2 * k] = HEX_DIGITS[b >>> 4];
+            id[2 * k + 1] = HEX_DIGITS[b & 0xf];
+        }
+        return new String(id);
+    }
+
+    /** Returns the long stored with the Ith id.
+     * @param i - the position */
+    long valueAt(int i) {
+        return _index.getLong(IDS_START + _count * ID_BYTES + i * 8);
+    }
+
+    /** Returns the position of ID, or -1 if it is not in the index.
+     * @param id - a full sha1 */
+    int find(String id) {
+        if (id.length() != Utils.UID_LENGTH || !isHex(id)) {
+            return -1;
+        }
+        int i = lowerBound(id);
+        if (i < _count && idAt(i).equals(id)) {
+            return i;
+        }
+        return -1;
+    }
+
+    /** Returns up to LIMIT ids that start with PREFIX, in sorted order.
+     * @param prefix - the start of an id, in lower case
+     * @param limit - the most ids to return
+     * @return the matching ids */
+    List<String> matches(String prefix, int limit) {
+        List<String> result = new ArrayList<>();
+        if (!isHex(prefix) || prefix.length() > Utils.UID_LENGTH) {
+            return result;
+        }
+        for (int i = lowerBound(prefix);
+             i < _count && result.size() < limit; i += 1) {
+            String id = idAt(i);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            result.add(id);
+        }
+        return result;
+    }
+
+    /** Returns the position of the first id that is not less than PREFIX,
+     * using the fan-out table to narrow the search to ids with the right
+     * first byte.
+     * @param prefix - the start of an id, in lower case hex */
+    private int lowerBound(String prefix) {
+        int lo;
+        int hi;
+        if (prefix.length() >= 2) {
+            int first = Integer.parseInt(prefix.substring(0, 2), 16);
+            lo = fanout(first - 1);
+            hi = fanout(first);
+        } else if (prefix.length() == 1) {
+            int nibble = Character.digit(prefix.charAt(0), 16);
+            lo = fanout(nibble * 16 - 1);
+            hi = fanout(nibble * 16 + 15);
+        } else {
+            lo = 0;
+            hi = _count;
+        }
+        byte[] key = toBytes(prefix);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Returns the number of ids whose first byte is at most B, which is 0
+     * for B = -1.
+     * @param b - a first byte, or -1 */
+    private int fanout(int b) {
+        return b < 0 ? 0 : _index.getInt(FANOUT_START + b * 4);
+    }
+
+    /** Compares the start of the Ith id with KEY, as unsigned bytes.
+     * @param i - position of the id
+     * @param key - raw bytes to compare against
+     * @return negative, zero or positive as the id is less than, starts
+     *         with, or is greater than KEY */
+    private int compareAt(int i, byte[] key) {
+        int base = IDS_START + i * ID_BYTES;
+        for (int k = 0; k < key.length; k += 1) {
+            int cmp = Integer.compare(_index.get(base + k) & 0xff,
+                                      key[k] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Writes an index of VALUES, sorted by id, to FILE. The index is
+     * written next to FILE first and renamed into place.
+     * @param file - where the index goes
+     * @param values - ids with the long to store for each */
+    static void write(File file, TreeMap<String, Long> values) {
+        int[] fanout = new int[FANOUT];
+        for (String id : values.keySet()) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        try {
+            Path tmp = ObjectStore.tempFile(file.getParentFile(), "");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.write(MAGIC);
+                out.writeInt(VERSION);
+                int total = 0;
+                for (int count : fanout) {
+                    total += count;
+                    out.writeInt(total);
+                }
+                for (String id : values.keySet()) {
+                    out.write(toBytes(id));
+                }
+                for (Map.Entry<String, Long> entry : values.entrySet()) {
+                    out.writeLong(entry.getValue());
+                }
+            }
+            Files.move(tmp, file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the raw bytes of hexadecimal ID, or of as many whole bytes as
+     * ID has digits for.
+     * @param id - a full or abbreviated sha1 */
+    static byte[] toBytes(String id) {
+        byte[] result = new byte[id.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) Integer.parseInt(
+                    id.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /** Returns true if S is made up only of lower case hex digits.
+     * @param s - the string */
+    static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Memory-maps all of FILE for reading.
+     * @param file - the file */
+    static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/** Merges two versions of a file line by line against the version they
+ * both came from, the way diff3 does. Each version is diffed against the
+ * base; hunks from the two sides that overlap or touch are grouped
+ * together, and every other line of the base is kept. A group changed on
+ * one side only takes that side's lines, and one both sides changed the
+ * same way takes those. Anything else is a conflict, written out between
+ * the same markers a whole-file conflict gets:
+ *      <<<<<<< HEAD
+ *      (the head's lines)
+ *      =======
+ *      (the other branch's lines)
+ *      >>>>>>>
+ * @author SEANJHANNON */
+class LineMerge {
+
+    /** Starts a conflict. */
+    private static final byte[] OURS =
+        "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    /** Separates the two sides of a conflict. */
+    private static final byte[] SEPARATOR =
+        "=======\n".getBytes(StandardCharsets.UTF_8);
+    /** Ends a conflict. */
+    private static final byte[] END =
+        ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /** The base version. */
+    private final Diff.Lines _base;
+    /** The head's version. */
+    private final Diff.Lines _ours;
+    /** The other branch's version. */
+    private final Diff.Lines _theirs;
+    /** Where the result goes. */
+    private final OutputStream _out;
+
+    /** Sets up a merge of OURS and THEIRS, which both came from BASE, into
+     * OUT.
+     * @param base - the common ancestor's version
+     * @param ours - the head's version
+     * @param theirs - the other branch's version
+     * @param out - where the result goes */
+    private LineMerge(Diff.Lines base, Diff.Lines ours, Diff.Lines theirs,
+                      OutputStream out) {
+        _base = base;
+        _ours = ours;
+        _theirs = theirs;
+        _out = out;
+    }
+
+    /** Writes the merge of OURS and THEIRS, which both came from BASE, to
+     * OUT.
+     * @param base - the common ancestor's version
+     * @param ours - the head's version
+     * @param theirs - the other branch's version
+     * @param out - where the result goes
+     * @return true if any part of it was a conflict
+     * @throws IOException if OUT fails */
+    static boolean merge(Diff.Lines base, Diff.Lines ours, Diff.Lines theirs,
+                         OutputStream out) throws IOException {
+        return new LineMerge(base, ours, theirs, out).run();
+    }
+
+    /** Does the merge.
+     * @return true if there was a conflict
+     * @throws IOException if _out fails */
+    private boolean run() throws IOException {
+        int[][] ids = Diff.intern(_base, _ours, _theirs);
+        List<Diff.Hunk> a = Diff.diff(ids[0], ids[1]);
+        List<Diff.Hunk> b = Diff.diff(ids[0], ids[2]);
+        boolean conflict = false;
+        int i = 0;
+        int j = 0;
+        int done = 0;
+        int shiftA = 0;
+        int shiftB = 0;
+        while (i < a.size() || j < b.size()) {
+            int lo = j == b.size() || i < a.size()
+                && a.get(i).aStart() <= b.get(j).aStart()
+                ? a.get(i).aStart() : b.get(j).aStart();
+            int hi = lo;
+            int firstA = i;
+            int firstB = j;
+            while (true) {
+                if (i < a.size() && a.get(i).aStart() <= hi) {
+                    hi = Math.max(hi, a.get(i).aEnd());
+                    i += 1;
+                } else if (j < b.size() && b.get(j).aStart() <= hi) {
+                    hi = Math.max(hi, b.get(j).aEnd());
+                    j += 1;
+                } else {
+                    break;
+                }
+            }
+            _base.write(_out, done, lo);
+            int oursLo = lo + shiftA;
+            int theirsLo = lo + shiftB;
+            shiftA += shift(a, firstA, i);
+            shiftB += shift(b, firstB, j);
+            int oursHi = hi + shiftA;
+            int theirsHi = hi + shiftB;
+            if (firstA == i) {
+                _theirs.write(_out, theirsLo, theirsHi);
+            } else if (firstB == j || same(ids[1], oursLo, oursHi,
+                                             ids[2], theirsLo, theirsHi)) {
+                _ours.write(_out, oursLo, oursHi);
+            } else {
+                _out.write(OURS);
+                side(_ours, oursLo, oursHi);
+                _out.write(SEPARATOR);
+                side(_theirs, theirsLo, theirsHi);
+                _out.write(END);
+                conflict = true;
+            }
+            done = hi;
+        }
+        _base.write(_out, done, _base.size());
+        return conflict;
+    }
+
+    /** Returns how many more lines the hunks FROM up to TO of HUNKS put in
+     * than they take out.
+     * @param hunks - the hunks of one side
+     * @param from - the first hunk
+     * @param to - the hunk after the last */
+    private static int shift(List<Diff.Hunk> hunks, int from, int to) {
+        int result = 0;
+        for (int k = from; k < to; k += 1) {
+            Diff.Hunk h = hunks.get(k);
+            result += (h.bEnd() - h.bStart()) - (h.aEnd() - h.aStart());
+        }
+        return result;
+    }
+
+    /** Returns true if lines [ALO, AHI) numbered A are the same as lines
+     * [BLO, BHI) numbered B.
+     * @param a - the numbers of one file's lines
+     * @param aLo - its first line
+     * @param aHi - the line after its last
+     * @param b - the numbers of the other file's lines
+     * @param bLo - its first line
+     * @param bHi - the line after its last */
+    private static boolean same(int[] a, int aLo, int aHi,
+                                int[] b, int bLo, int bHi) {
+        if (aHi - aLo != bHi - bLo) {
+            return false;
+        }
+        for (int k = 0; k < aHi - aLo; k += 1) {
+            if (a[aLo + k] != b[bLo + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Writes lines [FROM, TO) of FILE as one side of a conflict, ending
+     * the last of them with a newline if the file doesn't, so that the
+     * marker after it starts a line of its own.
+     * @param file - the version
+     * @param from - the first line
+     * @param to - the line after the last
+     * @throws IOException if _out fails */
+    private void side(Diff.Lines file, int from, int to) throws IOException {
+        file.write(_out, from, to);
+        if (to > from && !file.terminated(to - 1)) {
+            _out.write('\n');
+        }
+    }
+}
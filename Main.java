@@ -5,14 +5,23 @@ package gitlet;
  *  @author SEANJHANNON */
 public class Main {
 
-    /** This is where the magic happens!
+    /** This is where the magic happens! If a Daemon is serving this repo
+     * the command is sent to it; otherwise it runs right here.
      * @param args - user input */
     public static void main(String... args) {
+        int status = Daemon.forward(args);
+        if (status == 0) {
+            return;
+        } else if (status > 0) {
+            System.exit(status);
+        }
         try {
-            Main.oOoOoO(args);
+            Main.oOoOoO(Stats.parseOptions(args));
             return;
         } catch (GitletException e) {
             System.err.printf("%s%n", e.getMessage());
+        } finally {
+            Stats.finish();
         }
         System.exit(0);
 
@@ -21,7 +30,14 @@ public class Main {
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND>. */
     public static void oOoOoO(String... args) {
-        Repo gitletRepo = new Repo();
+        run(new Repo(), args);
+    }
+
+    /** Runs the command in ARGS against GITLETREPO, which the Daemon keeps
+     * around from one command to the next.
+     * @param gitletRepo - the repo
+     * @param args - <COMMAND> <OPERAND> */
+    static void run(Repo gitletRepo, String... args) {
         if (args.length < 1) {
             throw new GitletException("Please enter a command.");
         }
@@ -29,27 +45,39 @@ public class Main {
             throw new
                     GitletException("Not in an initialized Gitlet directory.");
         }
+        if (!args[0].equals("init")) {
+            gitletRepo.upgrade();
+        }
 
         switch (args[0]) {
         case "init": gitletRepo.init();
         break;
 
-        case "add": gitletRepo.add(args[1]);
+        case "add": gitletRepo.add(args);
         break;
 
         case "commit": gitletRepo.commit(args[1], null);
         break;
 
-        case "log": gitletRepo.log();
+        case "log": gitletRepo.log(args);
+        break;
+
+        case "global-log": gitletRepo.globalLog(args);
+        break;
+
+        case "find": gitletRepo.find(args);
+        break;
+
+        case "status": gitletRepo.status(args);
         break;
 
-        case "global-log": gitletRepo.globalLog();
+        case "diff": gitletRepo.diff(args);
         break;
 
-        case "find": gitletRepo.find(args[1]);
+        case "count-objects": gitletRepo.countObjects();
         break;
 
-        case "status": gitletRepo.status();
+        case "gc": case "repack": gitletRepo.gc();
         break;
 
         case "checkout": if (args.length != 3
@@ -74,6 +102,16 @@ public class Main {
         case "merge" : gitletRepo.merge(args[1]);
         break;
 
+        case "daemon" : if (args.length > 2 || args.length == 2
+                && !args[1].equals("stop")) {
+                throw new GitletException("Incorrect operands.");
+            }
+            if (args.length == 2) {
+                throw new GitletException("No gitlet daemon is running.");
+            }
+            Daemon.serve();
+        break;
+
         default: throw new GitletException("No command with that name exists.");
 
         }
@@ -0,0 +1,210 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/** Finds the best common ancestors of two commits, following both parents
+ * of merge commits. Works like git's merge-base: walk back from both
+ * commits at once, highest generation first, painting each commit with
+ * which of the two it can be reached from. A commit reachable from both is
+ * a common ancestor, and everything behind it is painted stale so the walk
+ * stops as soon as only stale commits are left. As in git, a running count
+ * of the waiting commits that are not stale tells when that is, without
+ * looking through the queue. A commit waits in the queue at most once at a
+ * time and is visited a bounded number of times, so the cost is linear in
+ * the part of history between the two commits and their merge base.
+ * Everything is read from the CommitGraph, so no commit is ever loaded.
+ * @author SEANJHANNON */
+class MergeBase {
+
+    /** Reachable from the first commit. */
+    private static final int PARENT1 = 1;
+    /** Reachable from the second commit. */
+    private static final int PARENT2 = 2;
+    /** Behind a common ancestor we already found. */
+    private static final int STALE = 4;
+    /** Already reported as a common ancestor. */
+    private static final int RESULT = 8;
+
+    /** The history to search. */
+    private final CommitGraph _graph;
+    /** Paint on each commit seen so far by paint, by position. */
+    private HashMap<Integer, Integer> _flags;
+    /** The commits waiting to be visited by paint, newest first. */
+    private PriorityQueue<Integer> _queue;
+    /** The commits in _queue. */
+    private Set<Integer> _waiting;
+    /** The number of commits in _queue that are not STALE. */
+    private int _nonStale;
+
+    /** Creates a merge base finder over GRAPH.
+     * @param graph - holds every commit that will be asked about */
+    MergeBase(CommitGraph graph) {
+        _graph = graph;
+    }
+
+    /** Returns the best common ancestors of A and B: the common ancestors
+     * that are not ancestors of another common ancestor. There is usually
+     * just one, but criss-cross merges can leave several. They are sorted
+     * newest first.
+     * @param a - sha1 of the first commit
+     * @param b - sha1 of the second commit
+     * @return the ids of the merge bases */
+    List<String> find(String a, String b) {
+        List<Integer> found = new ArrayList<>();
+        int first = _graph.indexOf(a);
+        int second = _graph.indexOf(b);
+        if (first == second) {
+            found.add(first);
+        } else {
+            found = paint(first, second);
+        }
+        List<String> result = new ArrayList<>();
+        for (int i : removeRedundant(found)) {
+            result.add(_graph.id(i));
+        }
+        return result;
+    }
+
+    /** Returns true if ANCESTOR can be reached from DESCENDANT by following
+     * parents, counting DESCENDANT itself.
+     * @param ancestor - sha1 of the possible ancestor
+     * @param descendant - sha1 of the commit to start from */
+    boolean isAncestor(String ancestor, String descendant) {
+        return reachableFrom(_graph.indexOf(descendant),
+                _graph.indexOf(ancestor));
+    }
+
+    /** Walks back from commits A and B until every commit left to visit is
+     * behind a common ancestor, and returns the common ancestors it met,
+     * newest first.
+     * @param a - position of the first commit
+     * @param b - position of the second commit */
+    private List<Integer> paint(int a, int b) {
+        List<Integer> result = new ArrayList<>();
+        _flags = new HashMap<>();
+        _queue = new PriorityQueue<>(newestFirst());
+        _waiting = new HashSet<>();
+        _nonStale = 0;
+        push(a, PARENT1);
+        push(b, PARENT2);
+        while (_nonStale > 0) {
+            int i = _queue.poll();
+            _waiting.remove(i);
+            int f = _flags.get(i) & (PARENT1 | PARENT2 | STALE);
+            if ((f & STALE) == 0) {
+                _nonStale -= 1;
+            }
+            if (f == (PARENT1 | PARENT2)) {
+                if ((_flags.get(i) & RESULT) == 0) {
+                    _flags.put(i, _flags.get(i) | RESULT);
+                    result.add(i);
+                }
+                f |= STALE;
+            }
+            for (int parent : parents(i)) {
+                push(parent, f);
+            }
+        }
+        return result;
+    }
+
+    /** Helper for paint - adds paint F to commit I, and puts it in the
+     * queue if that is new paint for it and it isn't waiting there
+     * already. Keeps _nonStale up to date.
+     * @param i - the position of the commit
+     * @param f - the paint */
+    private void push(int i, int f) {
+        int old = _flags.getOrDefault(i, 0);
+        if ((old & f) == f) {
+            return;
+        }
+        _flags.put(i, old | f);
+        if (!_waiting.add(i)) {
+            if ((old & STALE) == 0 && (f & STALE) != 0) {
+                _nonStale -= 1;
+            }
+            return;
+        }
+        _queue.add(i);
+        if (((old | f) & STALE) == 0) {
+            _nonStale += 1;
+        }
+    }
+
+    /** Drops every commit in BASES that is an ancestor of another one.
+     * @param bases - positions of common ancestors, newest first
+     * @return the remaining ones, in the same order */
+    private List<Integer> removeRedundant(List<Integer> bases) {
+        if (bases.size() < 2) {
+            return bases;
+        }
+        List<Integer> result = new ArrayList<>();
+        for (int candidate : bases) {
+            boolean redundant = false;
+            for (int other : bases) {
+                if (other != candidate && reachableFrom(other, candidate)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                result.add(candidate);
+            }
+        }
+        return result;
+    }
+
+    /** Returns true if TARGET can be reached from START. Commits with a
+     * generation number below TARGET's cannot lead to it and are skipped.
+     * @param start - position to walk back from
+     * @param target - position to look for */
+    private boolean reachableFrom(int start, int target) {
+        int floor = _graph.generation(target);
+        Set<Integer> visited = new HashSet<>();
+        ArrayList<Integer> todo = new ArrayList<>();
+        todo.add(start);
+        visited.add(start);
+        while (!todo.isEmpty()) {
+            int i = todo.remove(todo.size() - 1);
+            if (i == target) {
+                return true;
+            }
+            for (int parent : parents(i)) {
+                if (_graph.generation(parent) >= floor
+                        && visited.add(parent)) {
+                    todo.add(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Returns the positions of the parents of commit I.
+     * @param i - the position */
+    private int[] parents(int i) {
+        int parent = _graph.parent(i);
+        int mergeParent = _graph.mergeParent(i);
+        if (parent == CommitGraph.NONE) {
+            return new int[0];
+        } else if (mergeParent == CommitGraph.NONE) {
+            return new int[] {parent};
+        }
+        return new int[] {parent, mergeParent};
+    }
+
+    /** Orders commits by generation, highest first, so that no commit is
+     * visited before one of its descendants, then by timestamp, newest
+     * first. */
+    private Comparator<Integer> newestFirst() {
+        Comparator<Integer> byGeneration =
+            Comparator.comparingInt(_graph::generation);
+        Comparator<Integer> byTime = Comparator.comparingLong(_graph::time);
+        return byGeneration.thenComparing(byTime).reversed();
+    }
+}
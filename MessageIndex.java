@@ -0,0 +1,385 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** An inverted index of commit messages, so that find can look commits up
+ * instead of reading every one of them. Each commit is filed under a few
+ * keys: its whole message, every word in it and every three-character
+ * substring (trigram) of it, the last two in lower case.
+ *
+ * Keys are hashed with SHA-1 and each (key hash, commit id) pair is stored
+ * as a 40-byte record in one of BUCKETS bucket files, chosen by the first
+ * byte of the key hash. A bucket is a stack of runs, each an int count
+ * followed by that many records sorted by key hash, so a lookup binary
+ * searches each run and reads only the records it is after. Each batch of
+ * new commits is pushed on as a run of its own, which is then merged with
+ * the runs under it for as long as they are no more than twice its size.
+ * That only ever rewrites the top of a bucket, and leaves every run at
+ * least twice the size of the one above it, so there are O(log n) of them.
+ * A file named "count" holds FORMAT and how many commits are indexed; if
+ * that does not match the number of commits in the repo, or the index is
+ * in another format, it is out of date and gets rebuilt.
+ * @author SEANJHANNON */
+class MessageIndex {
+
+    /** Version of the layout of the buckets. */
+    static final int FORMAT = 2;
+    /** Number of bucket files. */
+    private static final int BUCKETS = 64;
+    /** Number of bytes in a raw SHA-1. */
+    private static final int ID_BYTES = 20;
+    /** Bytes in each record. */
+    private static final int RECORD = 2 * ID_BYTES;
+    /** Records read at a time once a lookup has found its first one. */
+    private static final int SCAN = 256;
+    /** Length of the substrings indexed for contains. */
+    static final int GRAM = 3;
+
+    /** The directory holding the buckets. */
+    private final File _dir;
+    /** Holds the number of commits indexed. */
+    private final File _count;
+
+    /** Opens the index kept in DIR, which need not exist yet.
+     * @param dir - the directory */
+    MessageIndex(File dir) {
+        _dir = dir;
+        _count = Utils.join(dir, "count");
+    }
+
+    /** Returns the number of commits indexed, or -1 if there is no
+     * index in FORMAT. */
+    int count() {
+        if (!_count.isFile()) {
+            return -1;
+        }
+        String[] fields = Utils.readContentsAsString(_count).trim()
+            .split(" ");
+        try {
+            if (fields.length != 2
+                    || Integer.parseInt(fields[0]) != FORMAT) {
+                return -1;
+            }
+            return Integer.parseInt(fields[1]);
+        } catch (NumberFormatException excp) {
+            return -1;
+        }
+    }
+
+    /** Throws away the whole index. */
+    void clear() {
+        if (_dir.isDirectory()) {
+            for (String name : Utils.plainFilenamesIn(_dir)) {
+                Utils.join(_dir, name).delete();
+            }
+        }
+    }
+
+    /** Adds the commits in MESSAGES to the index, as a new run in every
+     * bucket they have keys in. The buckets are written before the count,
+     * so a crash in between leaves an index that is seen to be out of
+     * date.
+     * @param messages - the message of each new commit, by sha1 */
+    void add(Map<String, String> messages) {
+        HashMap<Integer, List<byte[]>> buckets = new HashMap<>();
+        for (Map.Entry<String, String> entry : messages.entrySet()) {
+            byte[] id = IdIndex.toBytes(entry.getKey());
+            for (String key : keys(entry.getValue())) {
+                byte[] hash = hash(key);
+                byte[] record = Arrays.copyOf(hash, RECORD);
+                System.arraycopy(id, 0, record, ID_BYTES, ID_BYTES);
+                buckets.computeIfAbsent(bucket(hash),
+                    b -> new ArrayList<>()).add(record);
+            }
+        }
+        int indexed = Math.max(count(), 0) + messages.size();
+        _dir.mkdirs();
+        for (Map.Entry<Integer, List<byte[]>> entry : buckets.entrySet()) {
+            push(bucketFile(entry.getKey()), entry.getValue());
+        }
+        Utils.writeContents(_count, FORMAT + " " + indexed);
+    }
+
+    /** Pushes RECORDS onto bucket FILE as a new run, merging it with the
+     * runs under it while they are no more than twice its size. Anything
+     * after the last whole run is written over.
+     * @param file - the bucket
+     * @param records - the new records, in any order */
+    private static void push(File file, List<byte[]> records) {
+        records.sort(Arrays::compareUnsigned);
+        try (FileChannel out = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            List<long[]> runs = runs(out);
+            long top = 0;
+            if (!runs.isEmpty()) {
+                long[] last = runs.get(runs.size() - 1);
+                top = last[0] + last[1] * RECORD;
+            }
+            while (!runs.isEmpty()
+                   && runs.get(runs.size() - 1)[1] <= 2L * records.size()) {
+                long[] run = runs.remove(runs.size() - 1);
+                records = merge(read(out, run), records);
+                top = run[0] - Integer.BYTES;
+            }
+            ByteBuffer bytes = ByteBuffer.allocate(Integer.BYTES
+                    + records.size() * RECORD);
+            bytes.putInt(records.size());
+            for (byte[] record : records) {
+                bytes.put(record);
+            }
+            bytes.flip();
+            out.truncate(top);
+            while (bytes.hasRemaining()) {
+                top += out.write(bytes, top);
+            }
+            Stats.add(Stats.BYTES_WRITTEN, bytes.limit());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns sorted runs A and B merged into one.
+     * @param a - a run
+     * @param b - another run */
+    private static List<byte[]> merge(List<byte[]> a, List<byte[]> b) {
+        List<byte[]> result = new ArrayList<>(a.size() + b.size());
+        int i = 0;
+        int j = 0;
+        while (i < a.size() || j < b.size()) {
+            if (j == b.size() || i < a.size()
+                    && Arrays.compareUnsigned(a.get(i), b.get(j)) <= 0) {
+                result.add(a.get(i));
+                i += 1;
+            } else {
+                result.add(b.get(j));
+                j += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Returns every run in bucket IN, bottom first, as the position of
+     * its first record and its number of records. A run cut short ends the
+     * bucket.
+     * @param in - the bucket
+     * @throws IOException if it can't be read */
+    private static List<long[]> runs(FileChannel in) throws IOException {
+        List<long[]> result = new ArrayList<>();
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        long size = in.size();
+        long pos = 0;
+        while (pos + Integer.BYTES <= size) {
+            readFully(in, header.clear(), pos);
+            long n = header.getInt(0);
+            long start = pos + Integer.BYTES;
+            if (n < 0 || start + n * RECORD > size) {
+                break;
+            }
+            result.add(new long[] {start, n});
+            pos = start + n * RECORD;
+        }
+        return result;
+    }
+
+    /** Returns the records of RUN in bucket IN.
+     * @param in - the bucket
+     * @param run - the run, as runs gives it
+     * @throws IOException if it can't be read */
+    private static List<byte[]> read(FileChannel in, long[] run)
+        throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate((int) run[1] * RECORD);
+        readFully(in, bytes, run[0]);
+        bytes.flip();
+        List<byte[]> result = new ArrayList<>((int) run[1]);
+        while (bytes.hasRemaining()) {
+            byte[] record = new byte[RECORD];
+            bytes.get(record);
+            result.add(record);
+        }
+        return result;
+    }
+
+    /** Fills BUFFER from IN, starting at position POS.
+     * @param in - the file
+     * @param buffer - where the bytes go
+     * @param pos - where in IN they start
+     * @throws IOException if IN ends first or can't be read */
+    private static void readFully(FileChannel in, ByteBuffer buffer,
+                                  long pos) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = in.read(buffer, pos);
+            if (n < 0) {
+                throw new IOException("Message index cut short.");
+            }
+            pos += n;
+        }
+        Stats.add(Stats.BYTES_READ, buffer.position());
+    }
+
+    /** Returns the ids of the commits whose message is exactly MESSAGE.
+     * @param message - the message */
+    Set<String> exact(String message) {
+        return lookup(exactKey(message));
+    }
+
+    /** Returns the ids of the commits whose message has WORD in it as a
+     * whole word, ignoring case.
+     * @param word - a single word */
+    Set<String> word(String word) {
+        return lookup(wordKey(word.toLowerCase(Locale.ROOT)));
+    }
+
+    /** Returns the ids of the commits whose message may contain TEXT,
+     * ignoring case: those that have every trigram of TEXT. The caller
+     * still has to check each one. Returns null for text shorter than
+     * GRAM, which the index can't narrow down.
+     * @param text - the text to look for */
+    Set<String> candidates(String text) {
+        String lower = text.toLowerCase(Locale.ROOT);
+        if (lower.length() < GRAM) {
+            return null;
+        }
+        Set<String> result = null;
+        for (String gram : grams(lower)) {
+            Set<String> ids = lookup(gramKey(gram));
+            if (result == null) {
+                result = ids;
+            } else {
+                result.retainAll(ids);
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /** Returns the ids of the commits filed under KEY, in sorted order.
+     * Each run of the key's bucket is binary searched for the first record
+     * of the key, and the records from there on are read SCAN at a time
+     * until one has another key.
+     * @param key - the key */
+    private Set<String> lookup(String key) {
+        Set<String> result = new TreeSet<>();
+        byte[] hash = hash(key);
+        File file = bucketFile(bucket(hash));
+        if (!file.isFile()) {
+            return result;
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD);
+        byte[] found = new byte[ID_BYTES];
+        byte[] id = new byte[ID_BYTES];
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            for (long[] run : runs(in)) {
+                long lo = 0;
+                long hi = run[1];
+                while (lo < hi) {
+                    long mid = (lo + hi) >>> 1;
+                    readFully(in, record.clear(), run[0] + mid * RECORD);
+                    record.get(0, found);
+                    if (Arrays.compareUnsigned(found, hash) < 0) {
+                        lo = mid + 1;
+                    } else {
+                        hi = mid;
+                    }
+                }
+                boolean more = true;
+                for (long i = lo; more && i < run[1]; i += SCAN) {
+                    ByteBuffer records = ByteBuffer.allocate(
+                        (int) Math.min(SCAN, run[1] - i) * RECORD);
+                    readFully(in, records, run[0] + i * RECORD);
+                    records.flip();
+                    while (more && records.hasRemaining()) {
+                        records.get(found);
+                        records.get(id);
+                        more = Arrays.equals(found, hash);
+                        if (more) {
+                            result.add(Utils.toHex(id));
+                        }
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Returns every key MESSAGE is filed under.
+     * @param message - a commit message */
+    private static Set<String> keys(String message) {
+        Set<String> result = new HashSet<>();
+        result.add(exactKey(message));
+        String lower = message.toLowerCase(Locale.ROOT);
+        for (String word : lower.split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                result.add(wordKey(word));
+            }
+        }
+        for (String gram : grams(lower)) {
+            result.add(gramKey(gram));
+        }
+        return result;
+    }
+
+    /** Returns the distinct trigrams of TEXT.
+     * @param text - the text */
+    private static Set<String> grams(String text) {
+        Set<String> result = new HashSet<>();
+        for (int i = 0; i + GRAM <= text.length(); i += 1) {
+            result.add(text.substring(i, i + GRAM));
+        }
+        return result;
+    }
+
+    /** Returns the key for whole message MESSAGE.
+     * @param message - the message */
+    private static String exactKey(String message) {
+        return "message\0" + message;
+    }
+
+    /** Returns the key for lower case WORD.
+     * @param word - the word */
+    private static String wordKey(String word) {
+        return "word\0" + word;
+    }
+
+    /** Returns the key for lower case trigram GRAM.
+     * @param gram - the trigram */
+    private static String gramKey(String gram) {
+        return "gram\0" + gram;
+    }
+
+    /** Returns the raw SHA-1 of KEY.
+     * @param key - the key */
+    private static byte[] hash(String key) {
+        return IdIndex.toBytes(Utils.sha1(key));
+    }
+
+    /** Returns the bucket for a key hashed to HASH.
+     * @param hash - the raw SHA-1 of the key */
+    private static int bucket(byte[] hash) {
+        return (hash[0] & 0xff) % BUCKETS;
+    }
+
+    /** Returns the file of bucket B.
+     * @param b - the bucket number */
+    private File bucketFile(int b) {
+        return Utils.join(_dir, String.format("%02x", b));
+    }
+}
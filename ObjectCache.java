@@ -0,0 +1,68 @@
+package gitlet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/** A bounded cache of objects read from the .gitlet directory. Once it holds
+ * CAPACITY entries, the least recently used one is evicted to make room.
+ * Counts its hits and misses as the Stats counters NAME.hits and
+ * NAME.misses, so --stats tells whether it is pulling its weight.
+ * @param <K> - the type of the keys, usually a sha1 or a File
+ * @param <V> - the type of the cached objects
+ * @author SEANJHANNON */
+class ObjectCache<K, V> {
+
+    /** Cached objects, ordered from least to most recently used. */
+    private final LinkedHashMap<K, V> _entries;
+    /** Counter of lookups answered from the cache. */
+    private final String _hits;
+    /** Counter of lookups that had to go to disk. */
+    private final String _misses;
+
+    /** Creates an empty cache called NAME.
+     * @param name - what the cache is counted under, e.g. "cache.commit"
+     * @param capacity - the most entries the cache will ever hold */
+    ObjectCache(String name, int capacity) {
+        _hits = name + ".hits";
+        _misses = name + ".misses";
+        _entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /** Returns the object stored under KEY, calling LOADER to read it in if
+     * it is not already cached. Null results are not cached.
+     * @param key - the key to look up
+     * @param loader - reads the object in on a miss
+     * @return the cached or freshly loaded object */
+    V get(K key, Function<K, V> loader) {
+        V value = _entries.get(key);
+        if (value != null) {
+            Stats.add(_hits, 1);
+            return value;
+        }
+        Stats.add(_misses, 1);
+        value = loader.apply(key);
+        if (value != null) {
+            _entries.put(key, value);
+        }
+        return value;
+    }
+
+    /** Stores VALUE under KEY, e.g. right after writing it to disk.
+     * @param key - the key
+     * @param value - the object to cache */
+    void put(K key, V value) {
+        _entries.put(key, value);
+    }
+
+    /** Forgets whatever is stored under KEY.
+     * @param key - the key */
+    void invalidate(K key) {
+        _entries.remove(key);
+    }
+}
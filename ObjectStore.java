@@ -0,0 +1,500 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** A directory of immutable objects (blobs or commits), each kept in a file
+ * named by its SHA-1. Since an id always names the same contents, an object
+ * that is already on disk never has to be written again. New objects are
+ * written to a temporary file first and renamed into place, so a crash can
+ * never leave a half-written object behind under a real id.
+ *
+ * Loose objects can later be repacked into Packs in the pack subdirectory.
+ * Reads look for a loose file first and then in the packs, so callers never
+ * need to know where an object lives.
+ *
+ * So that abbreviated ids can be resolved without listing the directory,
+ * loose objects are also tracked in an IdIndex that is rebuilt every
+ * LOOSE_LOG_LIMIT objects, plus a log of the ids stored since.
+ * @author SEANJHANNON */
+class ObjectStore {
+
+    /** Prefix of the temporary files objects are written to before being
+     * renamed into place. Never a valid id. */
+    private static final String TEMP_PREFIX = "tmp_";
+
+    /** Picks names for temporary files. */
+    private static final Random RANDOM = new Random();
+
+    /** Whether new objects are flushed to the disk itself before they are
+     * renamed into place. Off by default; turn it on with -Dgitlet.fsync. */
+    static final boolean FSYNC = Boolean.getBoolean("gitlet.fsync");
+
+    /** Loose objects bigger than this many bytes on disk are left out of
+     * packs, since packing needs them in memory. */
+    private static final long PACK_OBJECT_LIMIT = 32 << 20;
+
+    /** How many ids the loose log may hold before the loose index is
+     * rebuilt to take them in. */
+    private static final int LOOSE_LOG_LIMIT = 4096;
+
+    /** The directory holding the objects. */
+    private final File _dir;
+    /** The directory holding packs of objects. */
+    private final File _packDir;
+    /** True if objects are stored deflated, as blobs are. */
+    private final boolean _compressed;
+    /** The packs in _packDir, or null until they are first needed. Only
+     * ever set to a complete list, so readers on other threads are safe. */
+    private volatile List<Pack> _packs;
+    /** The last modification time of _packDir when _packs was read. */
+    private long _packsSeen;
+    /** Index of the loose objects as of the last rebuild. */
+    private File _looseIndex;
+    /** Ids of objects stored loose since the last rebuild, one per line. */
+    private File _looseLog;
+
+    /** Creates a store for the objects in DIR.
+     * @param dir - the directory holding the objects
+     * @param compressed - whether objects are stored deflated */
+    ObjectStore(File dir, boolean compressed) {
+        _dir = dir;
+        _packDir = Utils.join(dir, "pack");
+        _looseIndex = Utils.join(_packDir, "loose-ids");
+        _looseLog = Utils.join(_packDir, "loose-ids.log");
+        _compressed = compressed;
+    }
+
+    /** Returns true if an object with id ID is stored.
+     * @param id - the sha1 */
+    boolean contains(String id) {
+        return isLoose(id) || findPack(id) != null;
+    }
+
+    /** Returns a stream over the contents of object ID, which the caller
+     * must close. Throws IllegalArgumentException if there is no such
+     * object.
+     * @param id - the sha1 */
+    InputStream open(String id) {
+        File file = Utils.join(_dir, id);
+        if (!file.isFile()) {
+            Pack pack = findPack(id);
+            if (pack == null) {
+                throw new IllegalArgumentException("no object " + id);
+            }
+            return Stats.counting(new ByteArrayInputStream(pack.read(id)));
+        }
+        if (_compressed) {
+            return Stats.counting(Utils.readCompressed(file));
+        }
+        try {
+            return Stats.counting(Files.newInputStream(file.toPath()));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the contents of object ID to FILE, creating or overwriting it
+     * along with any directories it needs.
+     * @param id - the sha1
+     * @param file - where the contents go */
+    void copyTo(String id, File file) {
+        file.getParentFile().mkdirs();
+        try (InputStream in = open(id);
+             OutputStream out = Files.newOutputStream(file.toPath())) {
+            Stats.add(Stats.BYTES_WRITTEN, in.transferTo(out));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stores the contents of SOURCE as object ID unless it is already
+     * stored.
+     * @param id - the sha1 of the contents
+     * @param source - file holding the contents
+     * @return true if the object had to be written */
+    boolean put(String id, File source) {
+        if (contains(id)) {
+            return false;
+        }
+        try {
+            return put(id, Files.newInputStream(source.toPath()));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stores CONTENTS as object ID unless it is already stored.
+     * @param id - the sha1 of the contents
+     * @param contents - the contents
+     * @return true if the object had to be written */
+    boolean put(String id, byte[] contents) {
+        return put(id, new ByteArrayInputStream(contents));
+    }
+
+    /** Stores everything read from IN as object ID unless it is already
+     * stored. IN is closed either way.
+     * @param id - the sha1 of the contents
+     * @param in - the contents
+     * @return true if the object had to be written */
+    boolean put(String id, InputStream in) {
+        File target = Utils.join(_dir, id);
+        try (InputStream src = in) {
+            if (target.isFile() || findPack(id) != null) {
+                return false;
+            }
+            Path tmp = tempFile(_dir, "");
+            logLoose(id);
+            try {
+                if (_compressed) {
+                    Utils.writeCompressed(tmp.toFile(), src);
+                } else {
+                    try (OutputStream out = Files.newOutputStream(tmp)) {
+                        src.transferTo(out);
+                    }
+                }
+                if (FSYNC) {
+                    force(tmp, StandardOpenOption.WRITE);
+                }
+                if (Stats.enabled()) {
+                    Stats.add(Stats.BYTES_WRITTEN, Files.size(tmp));
+                }
+                Files.move(tmp, target.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            if (FSYNC) {
+                force(_dir.toPath(), StandardOpenOption.READ);
+            }
+            return true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Deletes object ID if it is stored loose. Packed objects stay until
+     * the next repack.
+     * @param id - the sha1 */
+    void delete(String id) {
+        Utils.join(_dir, id).delete();
+    }
+
+    /** Returns the ids of all stored objects, in sorted order. */
+    List<String> ids() {
+        TreeSet<String> ids = new TreeSet<>(looseIDs());
+        for (Pack pack : packs()) {
+            for (int i = 0; i < pack.size(); i += 1) {
+                ids.add(pack.idAt(i));
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /** Returns the number of bytes the stored objects take up on disk. */
+    long diskUsage() {
+        long total = 0;
+        for (String id : looseIDs()) {
+            total += Utils.join(_dir, id).length();
+        }
+        if (_packDir.isDirectory()) {
+            for (String name : Utils.plainFilenamesIn(_packDir)) {
+                total += Utils.join(_packDir, name).length();
+            }
+        }
+        return total;
+    }
+
+    /** Moves every object into a single new pack (more if it would grow
+     * past Pack.MAX_PACK_SIZE), replacing all existing packs. Objects are
+     * added in the order of ORDER followed by any not in it, and each one
+     * with an entry in BASES may be stored as a delta against that object,
+     * which should come shortly before it. Very large objects stay loose.
+     * @param order - ids in the order they should be packed
+     * @param bases - maps ids to similar objects to delta against
+     * @return the number of objects packed and how many of them are
+     *         deltas, in that order */
+    int[] repack(List<String> order, Map<String, String> bases) {
+        return repack(order, bases, ids());
+    }
+
+    /** Deletes every object that is not in KEEP. Packs holding any of them
+     * are rewritten without them.
+     * @param keep - ids of the objects to keep */
+    void prune(Set<String> keep) {
+        List<String> kept = new ArrayList<>();
+        boolean packed = false;
+        for (String id : ids()) {
+            if (keep.contains(id)) {
+                kept.add(id);
+            } else if (isLoose(id)) {
+                delete(id);
+            } else {
+                packed = true;
+            }
+        }
+        if (packed) {
+            repack(kept, new HashMap<>(), kept);
+        }
+    }
+
+    /** Helper for repack and prune - packs the objects in ALL, ORDER first,
+     * and drops every pack that was there before.
+     * @param order - ids in the order they should be packed
+     * @param bases - a similar object for each id, to store it as a delta
+     * @param all - every object the new packs should hold
+     * @return the number of objects packed and how many of them are deltas */
+    private int[] repack(List<String> order, Map<String, String> bases,
+                         List<String> all) {
+        LinkedHashSet<String> todo = new LinkedHashSet<>(order);
+        todo.retainAll(new HashSet<>(all));
+        todo.addAll(all);
+        _packDir.mkdir();
+        List<File> written = new ArrayList<>();
+        Pack.Writer writer = new Pack.Writer(_packDir);
+        int deltas = 0;
+        int packed = 0;
+        for (String id : todo) {
+            if (isLoose(id)
+                    && Utils.join(_dir, id).length() > PACK_OBJECT_LIMIT) {
+                continue;
+            }
+            if (writer.size() > Pack.MAX_PACK_SIZE) {
+                deltas += writer.deltas();
+                written.add(writer.finish());
+                writer = new Pack.Writer(_packDir);
+            }
+            writer.add(id, readAll(id), bases.get(id));
+            packed += 1;
+        }
+        deltas += writer.deltas();
+        if (writer.count() > 0) {
+            written.add(writer.finish());
+        } else {
+            writer.abort();
+        }
+        for (File index : written) {
+            Pack pack = new Pack(index);
+            for (int i = 0; i < pack.size(); i += 1) {
+                String id = pack.idAt(i);
+                if (!Arrays.equals(pack.read(id), readAll(id))) {
+                    throw new GitletException("Repacking " + id
+                            + " failed; the old objects were kept.");
+                }
+            }
+        }
+        for (String name : Utils.plainFilenamesIn(_packDir)) {
+            File file = Utils.join(_packDir, name);
+            if (name.startsWith("pack-") && name.endsWith(Pack.INDEX_SUFFIX)
+                    && !written.contains(file)) {
+                file.delete();
+                Pack.packFileOf(file).delete();
+            }
+        }
+        _packs = null;
+        _looseIndex.delete();
+        _looseLog.delete();
+        for (File index : written) {
+            Pack pack = new Pack(index);
+            for (int i = 0; i < pack.size(); i += 1) {
+                delete(pack.idAt(i));
+            }
+        }
+        return new int[] {packed, deltas};
+    }
+
+    /** Returns up to LIMIT ids of stored objects that start with PREFIX,
+     * in sorted order, without listing any directories.
+     * @param prefix - the start of an id
+     * @param limit - the most ids to return */
+    List<String> findByPrefix(String prefix, int limit) {
+        TreeSet<String> found = new TreeSet<>();
+        for (Pack pack : packs()) {
+            found.addAll(pack.index().matches(prefix, limit));
+        }
+        for (String id : looseIndex().matches(prefix, Integer.MAX_VALUE)) {
+            if (isLoose(id)) {
+                found.add(id);
+            }
+        }
+        if (_looseLog.isFile()) {
+            for (String id : Utils.readContentsAsString(_looseLog)
+                    .split("\n")) {
+                if (id.startsWith(prefix) && isLoose(id)) {
+                    found.add(id);
+                }
+            }
+        }
+        List<String> result = new ArrayList<>(found);
+        return result.subList(0, Math.min(limit, result.size()));
+    }
+
+    /** Notes that object ID is about to be stored loose, rebuilding the
+     * loose index if the log has grown too long. Synchronized so that
+     * objects can be stored from several threads at once.
+     * @param id - the sha1 */
+    private synchronized void logLoose(String id) {
+        _packDir.mkdir();
+        if (_looseLog.length() > LOOSE_LOG_LIMIT * (Utils.UID_LENGTH + 1)) {
+            rebuildLooseIndex();
+        }
+        try {
+            Files.write(_looseLog.toPath(), (id + "\n").getBytes(
+                    StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the index of loose objects, building it if there is none. */
+    private IdIndex looseIndex() {
+        if (!_looseIndex.isFile()) {
+            rebuildLooseIndex();
+        }
+        return new IdIndex(_looseIndex);
+    }
+
+    /** Indexes every loose object from scratch and clears the log. Ids in
+     * the log are kept even if their file isn't there, since another
+     * thread may still be writing it; lookups check that the file
+     * exists anyway. */
+    private void rebuildLooseIndex() {
+        _packDir.mkdir();
+        TreeMap<String, Long> ids = new TreeMap<>();
+        for (String id : looseIDs()) {
+            ids.put(id, 0L);
+        }
+        if (_looseLog.isFile()) {
+            for (String id : Utils.readContentsAsString(_looseLog)
+                    .split("\n")) {
+                if (id.length() == Utils.UID_LENGTH) {
+                    ids.put(id, 0L);
+                }
+            }
+        }
+        IdIndex.write(_looseIndex, ids);
+        _looseLog.delete();
+    }
+
+    /** Returns the whole contents of object ID.
+     * @param id - the sha1 */
+    byte[] readAll(String id) {
+        try (InputStream in = open(id)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns true if object ID is stored in a file of its own.
+     * @param id - the sha1 */
+    private boolean isLoose(String id) {
+        return Utils.join(_dir, id).isFile();
+    }
+
+    /** Returns the ids of all loose objects, in sorted order. */
+    private List<String> looseIDs() {
+        List<String> ids = new ArrayList<>();
+        for (String name : Utils.plainFilenamesIn(_dir)) {
+            if (!name.startsWith(TEMP_PREFIX)) {
+                ids.add(name);
+            }
+        }
+        return ids;
+    }
+
+    /** Returns the pack holding object ID, or null if it isn't packed.
+     * @param id - the sha1 */
+    private Pack findPack(String id) {
+        for (Pack pack : packs()) {
+            if (pack.contains(id)) {
+                return pack;
+            }
+        }
+        return null;
+    }
+
+    /** Forgets the packs read in so far if another process may have
+     * repacked since, which shows in the modification time of _packDir.
+     * For stores that are kept open across commands. */
+    void refresh() {
+        if (_packs != null && _packDir.lastModified() != _packsSeen) {
+            _packs = null;
+        }
+    }
+
+    /** Returns the packs in _packDir, opening them the first time. */
+    List<Pack> packs() {
+        if (_packs == null) {
+            _packsSeen = _packDir.lastModified();
+            List<Pack> packs = new ArrayList<>();
+            if (_packDir.isDirectory()) {
+                for (String name : Utils.plainFilenamesIn(_packDir)) {
+                    if (name.startsWith("pack-")
+                            && name.endsWith(Pack.INDEX_SUFFIX)) {
+                        packs.add(new Pack(Utils.join(_packDir, name)));
+                    }
+                }
+            }
+            _packs = packs;
+        }
+        return _packs;
+    }
+
+    /** Creates a new, empty temporary file in DIR with the usual
+     * permissions (unlike Files.createTempFile, which makes it private).
+     * @param dir - the directory to create it in
+     * @param suffix - the end of its name
+     * @return the new file
+     * @throws IOException if it can't be created */
+    static Path tempFile(File dir, String suffix) throws IOException {
+        while (true) {
+            Path tmp = Utils.join(dir, TEMP_PREFIX
+                    + Long.toHexString(RANDOM.nextLong()) + suffix).toPath();
+            try {
+                return Files.createFile(tmp);
+            } catch (FileAlreadyExistsException excp) {
+                continue;
+            }
+        }
+    }
+
+    /** Flushes PATH, opened with OPTION, all the way to the disk.
+     * Directories can't be flushed on every platform, which is fine to
+     * ignore.
+     * @param path - a file or directory
+     * @param option - how to open it
+     * @throws IOException if a regular file can't be flushed */
+    private static void force(Path path, StandardOpenOption option)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(path, option)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            if (!Files.isDirectory(path)) {
+                throw excp;
+            }
+        }
+    }
+}
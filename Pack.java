@@ -0,0 +1,324 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** A pack: many objects stored back to back in one file instead of one file
+ * each, some of them as Deltas against an earlier object in the same pack.
+ * Next to every NAME.pack sits a NAME.idx, an IdIndex of the objects it
+ * holds with their offsets in the pack, so an object is found by binary
+ * search. Both files are memory-mapped rather than read in.
+ *
+ * A pack is "GPAK", a version number and then its entries, each one of
+ *     FULL:  type, length, deflated length, deflated contents
+ *     DELTA: type, base offset, length, deflated length, deflated delta
+ * with all numbers but the version written as varints, followed by the
+ * SHA-1 of everything before it.
+ * @author SEANJHANNON */
+class Pack {
+
+    /** Extension of pack files. */
+    static final String PACK_SUFFIX = ".pack";
+    /** Extension of pack index files. */
+    static final String INDEX_SUFFIX = ".idx";
+    /** Longest chain of deltas we allow before storing an object whole. */
+    static final int MAX_DEPTH = 16;
+    /** Packs are kept under this size so that they can be mapped whole. */
+    static final long MAX_PACK_SIZE = 1L << 30;
+
+    /** First bytes of every pack. */
+    private static final byte[] PACK_MAGIC = {'G', 'P', 'A', 'K'};
+    /** Version of the pack format. */
+    private static final int VERSION = 1;
+    /** Entry type of objects stored whole. */
+    private static final int FULL = 0;
+    /** Entry type of objects stored as deltas. */
+    private static final int DELTA = 1;
+    /** The mapped pack file. */
+    private final MappedByteBuffer _pack;
+    /** The pack's index. */
+    private final IdIndex _index;
+
+    /** Opens the pack whose index is INDEXFILE.
+     * @param indexFile - the NAME.idx file, next to NAME.pack */
+    Pack(File indexFile) {
+        _index = new IdIndex(indexFile);
+        _pack = IdIndex.map(packFileOf(indexFile));
+        for (int i = 0; i < PACK_MAGIC.length; i += 1) {
+            if (_pack.get(i) != PACK_MAGIC[i]) {
+                throw new IllegalArgumentException("not a gitlet pack");
+            }
+        }
+        if (_pack.getInt(PACK_MAGIC.length) != VERSION) {
+            throw new IllegalArgumentException("unknown pack version");
+        }
+    }
+
+    /** Returns the index of this pack. */
+    IdIndex index() {
+        return _index;
+    }
+
+    /** Returns the number of objects in this pack. */
+    int size() {
+        return _index.size();
+    }
+
+    /** Returns the id of the Ith object in sorted order.
+     * @param i - the position */
+    String idAt(int i) {
+        return _index.idAt(i);
+    }
+
+    /** Returns true if this pack holds object ID.
+     * @param id - the sha1 */
+    boolean contains(String id) {
+        return _index.find(id) >= 0;
+    }
+
+    /** Returns the contents of object ID, or null if this pack does not
+     * hold it.
+     * @param id - the sha1 */
+    byte[] read(String id) {
+        int i = _index.find(id);
+        if (i < 0) {
+            return null;
+        }
+        return readAt(_index.valueAt(i));
+    }
+
+    /** Returns the contents of the entry at OFFSET, following its chain of
+     * deltas back to a full object.
+     * @param offset - where the entry starts in the pack */
+    private byte[] readAt(long offset) {
+        ArrayDeque<byte[]> deltas = new ArrayDeque<>();
+        byte[] result;
+        while (true) {
+            ByteBuffer in = _pack.duplicate();
+            in.position((int) offset);
+            int type = in.get();
+            if (type == DELTA) {
+                offset = Delta.readVarint(in);
+                deltas.push(inflate(in));
+            } else if (type == FULL) {
+                result = inflate(in);
+                break;
+            } else {
+                throw new IllegalArgumentException("corrupt pack");
+            }
+        }
+        while (!deltas.isEmpty()) {
+            result = Delta.apply(result, deltas.pop());
+        }
+        return result;
+    }
+
+    /** Reads a length, a deflated length and that many deflated bytes from
+     * IN and returns them inflated.
+     * @param in - the pack, positioned at the lengths */
+    private static byte[] inflate(ByteBuffer in) {
+        byte[] result = new byte[(int) Delta.readVarint(in)];
+        int deflated = (int) Delta.readVarint(in);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(in.slice(in.position(), deflated));
+            int n = 0;
+            while (n < result.length && !inflater.finished()) {
+                n += inflater.inflate(result, n, result.length - n);
+                if (inflater.needsInput()) {
+                    break;
+                }
+            }
+            if (n != result.length) {
+                throw new IllegalArgumentException("corrupt pack");
+            }
+            return result;
+        } catch (DataFormatException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Returns the NAME.pack file that goes with index INDEXFILE.
+     * @param indexFile - a NAME.idx file */
+    static File packFileOf(File indexFile) {
+        String name = indexFile.getName();
+        return new File(indexFile.getParentFile(),
+                name.substring(0, name.length() - INDEX_SUFFIX.length())
+                + PACK_SUFFIX);
+    }
+
+    /** Writes a new pack and its index. Objects are added one at a time and
+     * only the last few are kept in memory, for use as delta bases. */
+    static class Writer {
+
+        /** How many recently added objects are kept around as possible
+         * delta bases. */
+        private static final int RECENT = 8;
+
+        /** Directory the pack goes in. */
+        private final File _dir;
+        /** The pack, while it is being written. */
+        private final Path _tmp;
+        /** Stream onto _tmp. */
+        private final OutputStream _out;
+        /** Checksum of everything written so far. */
+        private final MessageDigest _digest;
+        /** Number of bytes written so far. */
+        private long _position;
+        /** Offset of each object's entry, sorted by id. */
+        private final TreeMap<String, Long> _offsets = new TreeMap<>();
+        /** Length of the delta chain behind each object. */
+        private final HashMap<String, Integer> _depths = new HashMap<>();
+        /** Contents of the objects added most recently. */
+        private final ObjectCache<String, byte[]> _recent =
+            new ObjectCache<>("cache.pack", RECENT);
+        /** Number of objects stored as deltas. */
+        private int _deltas;
+
+        /** Starts a new pack in DIR.
+         * @param dir - the directory to put it in */
+        Writer(File dir) {
+            _dir = dir;
+            try {
+                _digest = MessageDigest.getInstance("SHA-1");
+                _tmp = ObjectStore.tempFile(dir, PACK_SUFFIX);
+                _out = new BufferedOutputStream(Files.newOutputStream(_tmp));
+                write(PACK_MAGIC);
+                write(ByteBuffer.allocate(4).putInt(VERSION).array());
+            } catch (IOException | NoSuchAlgorithmException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Returns the number of bytes written so far. */
+        long size() {
+            return _position;
+        }
+
+        /** Returns the number of objects added so far. */
+        int count() {
+            return _offsets.size();
+        }
+
+        /** Returns the number of objects stored as deltas so far. */
+        int deltas() {
+            return _deltas;
+        }
+
+        /** Adds object ID with the given CONTENTS. If BASE was one of the
+         * last few objects added, ID is stored as a delta against it as long
+         * as that saves at least half the space.
+         * @param id - the sha1
+         * @param contents - the object's contents
+         * @param base - id of a similar object, or null */
+        void add(String id, byte[] contents, String base) {
+            byte[] baseContents = base == null ? null
+                : _recent.get(base, b -> null);
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            byte[] body = null;
+            int depth = 0;
+            if (baseContents != null && _depths.get(base) < MAX_DEPTH) {
+                byte[] delta = Delta.create(baseContents, contents);
+                if (delta.length < contents.length / 2) {
+                    header.write(DELTA);
+                    Delta.writeVarint(header, _offsets.get(base));
+                    body = delta;
+                    depth = _depths.get(base) + 1;
+                    _deltas += 1;
+                }
+            }
+            if (body == null) {
+                header.write(FULL);
+                body = contents;
+            }
+            byte[] deflated = deflate(body);
+            Delta.writeVarint(header, body.length);
+            Delta.writeVarint(header, deflated.length);
+            _offsets.put(id, _position);
+            _depths.put(id, depth);
+            _recent.put(id, contents);
+            write(header.toByteArray());
+            write(deflated);
+        }
+
+        /** Finishes the pack, moves it into place under its final name,
+         * and writes its index.
+         * @return the index file */
+        File finish() {
+            try {
+                byte[] checksum = _digest.digest();
+                _out.write(checksum);
+                _out.close();
+                String name = "pack-" + Utils.sha1(
+                        String.join("", _offsets.keySet()));
+                File pack = new File(_dir, name + PACK_SUFFIX);
+                File index = new File(_dir, name + INDEX_SUFFIX);
+                Files.move(_tmp, pack.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+                IdIndex.write(index, _offsets);
+                return index;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Throws away the pack written so far. */
+        void abort() {
+            try {
+                _out.close();
+                Files.deleteIfExists(_tmp);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Appends BYTES to the pack.
+         * @param bytes - what to write */
+        private void write(byte[] bytes) {
+            try {
+                _out.write(bytes);
+                _digest.update(bytes);
+                _position += bytes.length;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Returns DATA deflated.
+         * @param data - the bytes */
+        private static byte[] deflate(byte[] data) {
+            Deflater deflater = new Deflater();
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1 << 16];
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    out.write(buffer, 0, n);
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** Finds the files a change renamed or copied. Commits only map paths to
+ * blobs, so a renamed file looks like one file deleted and another added;
+ * this pairs them back up by how alike their contents are.
+ *
+ * Files whose blobs are the same are paired first, without reading
+ * anything. The rest are compared through their Sketches, which the
+ * SketchIndex keeps, so no file is read more than once ever. When there
+ * are too many pairs to compare them all, only files whose sketches share a
+ * band (see Sketch.band) are compared, which leaves a few comparisons per
+ * file instead of one for every other file. Pairs at least THRESHOLD
+ * percent alike are then taken best first. Each deleted file can be
+ * renamed only once; any other file it was the best match for is a copy of
+ * it, as is a file best matching one that is still there.
+ * @author SEANJHANNON */
+class Renames {
+
+    /** How alike two files must be, in percent, to be paired up. */
+    static final int THRESHOLD = 50;
+    /** Up to this many pairs, every one is compared. */
+    private static final long ALL_PAIRS = 1 << 16;
+
+    /** A file renamed or copied.
+     * @param from - the file it came from
+     * @param to - the new file
+     * @param score - how alike the two are, in percent
+     * @param copy - true if FROM was copied rather than renamed */
+    record Rename(String from, String to, int score, boolean copy) { }
+
+    /** A file a new file may have come from.
+     * @param path - its path
+     * @param blob - its contents
+     * @param gone - true if it was deleted */
+    private record Source(String path, String blob, boolean gone) { }
+
+    /** Returns the renames, and copies if COPIES, among the files in
+     * ADDED, in order of their new paths. Files in GONE can be renamed or
+     * copied, and files in KEPT only copied.
+     * @param gone - the deleted files, mapped to their old blobs
+     * @param kept - files still there that new ones may be copies of,
+     *             mapped to their old blobs
+     * @param added - the new files, mapped to their blobs
+     * @param copies - false to look for renames only
+     * @param sketches - the sketches of the blobs */
+    static List<Rename> find(Map<String, String> gone,
+                             Map<String, String> kept,
+                             Map<String, String> added, boolean copies,
+                             SketchIndex sketches) {
+        List<Rename> result = new ArrayList<>();
+        if (gone.isEmpty() && (!copies || kept.isEmpty())
+                || added.isEmpty()) {
+            return result;
+        }
+        List<Source> sources = new ArrayList<>();
+        for (Map.Entry<String, String> e : new TreeMap<>(gone).entrySet()) {
+            sources.add(new Source(e.getKey(), e.getValue(), true));
+        }
+        if (copies) {
+            for (Map.Entry<String, String> e
+                     : new TreeMap<>(kept).entrySet()) {
+                sources.add(new Source(e.getKey(), e.getValue(), false));
+            }
+        }
+        HashMap<String, List<Source>> byBlob = new HashMap<>();
+        for (Source s : sources) {
+            byBlob.computeIfAbsent(s.blob(), b -> new ArrayList<>()).add(s);
+        }
+        Set<String> renamed = new HashSet<>();
+        List<String> targets = new ArrayList<>();
+        for (Map.Entry<String, String> e : new TreeMap<>(added).entrySet()) {
+            Source match = null;
+            for (Source s : byBlob.getOrDefault(e.getValue(), List.of())) {
+                if (s.gone() && !renamed.contains(s.path())) {
+                    match = s;
+                    break;
+                } else if (copies && match == null) {
+                    match = s;
+                }
+            }
+            if (match == null) {
+                targets.add(e.getKey());
+            } else {
+                result.add(take(match, e.getKey(), 100, renamed));
+            }
+        }
+        if (!copies) {
+            sources.removeIf(s -> renamed.contains(s.path()));
+        }
+        if (!targets.isEmpty() && !sources.isEmpty()) {
+            Set<String> paired = new HashSet<>();
+            for (int[] pair : similar(sources, targets, added, sketches)) {
+                Source s = sources.get(pair[1]);
+                String to = targets.get(pair[2]);
+                if (!paired.contains(to) && (copies
+                        || s.gone() && !renamed.contains(s.path()))) {
+                    result.add(take(s, to, pair[0], renamed));
+                    paired.add(to);
+                }
+            }
+        }
+        result.sort(Comparator.comparing(Rename::to));
+        return result;
+    }
+
+    /** Returns the rename or copy of S to TO, SCORE percent alike, noting
+     * in RENAMED that S has been renamed if it is one.
+     * @param s - the old file
+     * @param to - the new file
+     * @param score - how alike they are
+     * @param renamed - the paths of the files already renamed */
+    private static Rename take(Source s, String to, int score,
+                               Set<String> renamed) {
+        boolean copy = !s.gone() || !renamed.add(s.path());
+        return new Rename(s.path(), to, score, copy);
+    }
+
+    /** Returns every pair of a file in SOURCES and one in TARGETS at least
+     * THRESHOLD percent alike, as {score, source, target}, best first and
+     * then in order of target and source. Unless every pair is compared,
+     * the band hashes of the sources are kept in one sorted array, each
+     * with the number of its source in place of its low bits, so the
+     * sources sharing a band with a target are found by binary search.
+     * @param sources - the files new ones may have come from
+     * @param targets - the paths of the new files left to pair up
+     * @param added - the blob of each new file
+     * @param sketches - the sketches of the blobs */
+    @SuppressWarnings("try")
+    private static List<int[]> similar(List<Source> sources,
+                                       List<String> targets,
+                                       Map<String, String> added,
+                                       SketchIndex sketches) {
+        Set<String> blobs = new HashSet<>();
+        for (Source s : sources) {
+            blobs.add(s.blob());
+        }
+        for (String to : targets) {
+            blobs.add(added.get(to));
+        }
+        Map<String, Sketch> sketch;
+        try (Stats.Phase phase = Stats.phase("renames.sketch")) {
+            sketch = sketches.get(blobs);
+        }
+        List<int[]> result = new ArrayList<>();
+        try (Stats.Phase phase = Stats.phase("renames.match")) {
+            Sketch[] from = new Sketch[sources.size()];
+            for (int i = 0; i < from.length; i += 1) {
+                from[i] = sketch.get(sources.get(i).blob());
+            }
+            boolean all = (long) from.length * targets.size() <= ALL_PAIRS;
+            long mask = (1L << Integer.SIZE - Integer.numberOfLeadingZeros(
+                from.length)) - 1;
+            long[] bands = new long[all ? 0 : from.length * Sketch.BANDS];
+            int n = 0;
+            for (int i = 0; !all && i < from.length; i += 1) {
+                for (int b = 0; !from[i].isEmpty() && b < Sketch.BANDS;
+                     b += 1) {
+                    bands[n] = from[i].band(b) & ~mask | i;
+                    n += 1;
+                }
+            }
+            Arrays.sort(bands, 0, n);
+            int[] tried = new int[from.length];
+            for (int j = 0; j < targets.size(); j += 1) {
+                Sketch to = sketch.get(added.get(targets.get(j)));
+                if (to.isEmpty()) {
+                    continue;
+                }
+                List<Integer> candidates = new ArrayList<>();
+                for (int i = 0; all && i < from.length; i += 1) {
+                    candidates.add(i);
+                }
+                for (int b = 0; !all && b < Sketch.BANDS; b += 1) {
+                    long key = to.band(b) & ~mask;
+                    int k = Arrays.binarySearch(bands, 0, n, key);
+                    for (k = k < 0 ? -k - 1 : k;
+                         k < n && (bands[k] & ~mask) == key; k += 1) {
+                        int i = (int) (bands[k] & mask);
+                        if (tried[i] != j + 1) {
+                            tried[i] = j + 1;
+                            candidates.add(i);
+                        }
+                    }
+                }
+                for (int i : candidates) {
+                    int score = from[i].similarity(to);
+                    if (score >= THRESHOLD) {
+                        result.add(new int[] {score, i, j});
+                    }
+                }
+            }
+            result.sort(Comparator.<int[]>comparingInt(p -> -p[0])
+                    .thenComparingInt(p -> p[2])
+                    .thenComparingInt(p -> p[1]));
+        }
+        return result;
+    }
+}
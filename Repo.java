@@ -1,15 +1,49 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.TreeMap;
 import java.util.List;
 import java.util.TreeSet;
-import java.util.Arrays;
 import java.util.Set;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Comparator;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
 
 /** Repo object for a .gitlet repository. Stores references to all of the files
  * and classes needed to make the repo work.
@@ -23,13 +57,13 @@ public class Repo {
     private File _GITLETREPO;
     /** Stores the current state of the repo's staging area. */
     private File _STAGING;
+    /** Journal of changes to the StagingArea since _STAGING was written. */
+    private File _STAGE_JOURNAL;
     /** The StagingArea object for this repo. */
     private StagingArea _stage;
-    /** Stores the current state of the _commits TreeMap, works similarly to
-     * _STAGING. */
+    /** Directory storing each COMMIT in its own file, where each filename
+     * is the SHA-1 of the COMMIT it contains. */
     private File _COMMITS;
-    /** Maps sha1 IDs to Commit objects. */
-    private TreeMap<String, Commit> _commits;
     /** Directory storing pointers to the head commits of each branch. */
     private File _BRANCHES;
     /** Stores the sha1 of the commit at the end of the active branch. */
@@ -38,27 +72,101 @@ public class Repo {
     private File _MASTER;
     /** Directory for storing Blobs in files. */
     private File _BLOBS;
+    /** Directory for storing Trees in files. */
+    private File _TREES;
+    /** The trees in _TREES. */
+    private TreeStore _trees;
+    /** The most flattened trees kept in memory at once by _files. */
+    private static final int FILES_CACHE_SIZE = 4;
+    /** The tracked files of recently used trees, by tree id. */
+    private ObjectCache<String, Map<String, String>> _files;
+    /** The blobs in _BLOBS. */
+    private ObjectStore _blobStore;
+    /** The commits in _COMMITS. */
+    private ObjectStore _commitStore;
+    /** Sketches of the blobs in _BLOBS, for finding renames. */
+    private SketchIndex _sketches;
+    /** Holds the format version of this repo's .gitlet directory. */
+    private File _VERSION;
+    /** The version of the .gitlet layout this code reads and writes. Bump
+     * it and add a step to upgrade() whenever that layout changes. */
+    static final int FORMAT_VERSION = 6;
+    /** Stores the WorkingIndex of stats for files in the CWD. */
+    private File _INDEX;
+    /** The WorkingIndex for this repo, or null until it is first needed. */
+    private WorkingIndex _index;
+    /** The most commits kept in memory at once by _commitCache. */
+    private static final int COMMIT_CACHE_SIZE = 1024;
+    /** Commits already read in during this command, by sha1. */
+    private ObjectCache<String, Commit> _commitCache;
+    /** The StagingArea as last read from or written to _STAGING. */
+    private ObjectCache<File, StagingArea> _stageCache;
+    /** Stores the CommitGraph of the commits in _COMMITS. */
+    private File _COMMIT_GRAPH;
+    /** The CommitGraph for this repo, or null until it is first needed. */
+    private CommitGraph _graph;
+    /** Directory holding the MessageIndex used by find. */
+    private File _MESSAGES;
+    /** Lines of unchanged text the DIFF command shows around changes. */
+    private static final int DIFF_CONTEXT = 3;
+    /** Files bigger than this, in bytes, are never merged or diffed line
+     * by line. */
+    private static final int MAX_LINE_MERGE = 1 << 24;
+    /** How many commits are added to the MessageIndex at a time when it
+     * is rebuilt. */
+    private static final int MESSAGE_BATCH = 4096;
+    /** Formats commit dates for log and global-log. */
+    private SimpleDateFormat _dateFormat;
+    /** How many commits log and global-log print between checks that
+     * anyone is still reading. */
+    private static final int LOG_CHECK_INTERVAL = 64;
+
+    /** Where log and global-log print commits. */
+    private OutputStream _out;
 
     /** Constructor for a Repo object - creates filepaths for all necessary
      * files and directories. */
     public Repo() {
-        _CWD = new File(System.getProperty("user.dir"));
+        this(new File(System.getProperty("user.dir")),
+             new FileOutputStream(FileDescriptor.out));
+    }
+
+    /** Creates a Repo for a CWD other than the one gitlet was started in,
+     * e.g. to run commands against a scratch repo in a benchmark.
+     * @param cwd - the working directory
+     * @param out - where log and global-log print commits */
+    Repo(File cwd, OutputStream out) {
+        _CWD = cwd;
+        _out = out;
         _GITLETREPO  = Utils.join(_CWD, ".gitlet");
         _COMMITS = Utils.join(_GITLETREPO, "commits");
         _BRANCHES = Utils.join(_GITLETREPO, "branches");
         _HEAD = Utils.join(_BRANCHES, "HEAD");
         _MASTER = Utils.join(_BRANCHES, "master");
         _BLOBS = Utils.join(_GITLETREPO, "blobs");
+        _blobStore = new ObjectStore(_BLOBS, true);
+        _sketches = new SketchIndex(Utils.join(_GITLETREPO, "sketches"),
+                _blobStore);
+        _TREES = Utils.join(_GITLETREPO, "trees");
+        _trees = new TreeStore(_TREES);
+        _files = new ObjectCache<>("cache.files", FILES_CACHE_SIZE);
+        _commitStore = new ObjectStore(_COMMITS, false);
         _STAGING = Utils.join(_GITLETREPO, "staging" + ".txt");
+        _STAGE_JOURNAL = Utils.join(_GITLETREPO, "staging.journal");
+        _INDEX = Utils.join(_GITLETREPO, "index");
+        _VERSION = Utils.join(_GITLETREPO, "version");
+        _COMMIT_GRAPH = Utils.join(_GITLETREPO, "commit-graph");
+        _MESSAGES = Utils.join(_GITLETREPO, "messages");
+        _dateFormat = new SimpleDateFormat("EEE MMM d HH:mm:ss Y Z");
         _stage = new StagingArea();
-        _commits = new TreeMap<>();
+        _commitCache = new ObjectCache<>("cache.commit", COMMIT_CACHE_SIZE);
+        _stageCache = new ObjectCache<>("cache.staging", 1);
     }
 
     /** The INIT command - creates files and directories from filepaths in
      * contructor, creates initial commit. */
     public void init() {
-        if (Utils.join(System.getProperty("user.dir"),
-                ".gitlet").exists()) {
+        if (_GITLETREPO.exists()) {
             String msg = "A Gitlet version-control system already "
                     + "exists in the current directory.";
             Utils.message(msg);
@@ -67,148 +175,390 @@ public class Repo {
         _GITLETREPO.mkdir();
         _BRANCHES.mkdir();
         _BLOBS.mkdir();
-        Utils.writeObject(_STAGING, _stage);
+        _COMMITS.mkdir();
+        _TREES.mkdir();
+        saveStage();
         Commit initialCommit = new Commit("initial commit",
-                null, null);
-        _commits.put(initialCommit.getSHA(), initialCommit);
-        Utils.writeObject(_COMMITS, _commits);
+                null, null, _trees.put(Tree.EMPTY));
+        saveCommit(initialCommit);
         Utils.writeContents(_MASTER, initialCommit.getSHA());
         Utils.writeContents(_HEAD, "master");
+        Utils.writeContents(_VERSION, Integer.toString(FORMAT_VERSION));
     }
 
-    /** The ADD command - creates blob from specified file and stores it in
-     * _BLOBS, updates hashmap in ADD.
-     * @param filename - name of the file to be staged for addition */
-    public void add(String filename) {
-        if (!Utils.join(_CWD, filename).exists()) {
-            throw new GitletException("File does not exist.");
+    /** The ADD command - creates blobs from the specified files and stores
+     * them in _BLOBS, updates hashmap in ADD. Files are hashed and stored in
+     * parallel, and the staging area is written out once at the end.
+     * @param args - the command followed by any number of paths of files or
+     *             directories, glob patterns such as src/*.txt, or -A to add
+     *             every file in the CWD and stage every tracked file that is
+     *             gone for removal */
+    @SuppressWarnings("try")
+    public void add(String... args) {
+        if (args.length < 2) {
+            throw new GitletException("Incorrect operands.");
+        }
+        List<String> present = workingFiles();
+        Set<String> filenames = new TreeSet<>();
+        boolean all = false;
+        for (int i = 1; i < args.length; i += 1) {
+            String arg = args[i];
+            if (arg.equals("-A")) {
+                all = true;
+                filenames.addAll(present);
+            } else if (Utils.join(_CWD, arg).isDirectory()) {
+                String dir = relativePath(arg);
+                String prefix = dir.isEmpty() ? "" : dir + "/";
+                for (String name : present) {
+                    if (name.startsWith(prefix)) {
+                        filenames.add(name);
+                    }
+                }
+            } else if (Utils.join(_CWD, arg).exists()) {
+                filenames.add(relativePath(arg));
+            } else if (isGlob(arg)) {
+                PathMatcher matcher =
+                    FileSystems.getDefault().getPathMatcher("glob:" + arg);
+                int before = filenames.size();
+                for (String name : present) {
+                    if (matcher.matches(Paths.get(name))) {
+                        filenames.add(name);
+                    }
+                }
+                if (filenames.size() == before) {
+                    throw new GitletException("File does not exist.");
+                }
+            } else {
+                throw new GitletException("File does not exist.");
+            }
         }
-        File target = Utils.join(_CWD, filename);
-        Blob toAdd = new Blob(target);
-        String toAddName = toAdd.getFname();
-        File toAddFile = Utils.join(_BLOBS, toAdd.getSHA());
+        WorkingIndex index = getIndex();
+        Map<String, String> blobIDs = new ConcurrentHashMap<>();
+        try (Stats.Phase phase = Stats.phase("add.hash")) {
+            Utils.forEachParallel(filenames, filename -> {
+                File target = Utils.join(_CWD, filename);
+                String blobID = index.blobID(target, filename);
+                _blobStore.put(blobID, target);
+                blobIDs.put(filename, blobID);
+            });
+        }
+        saveIndex();
         _stage = getStage();
-        Utils.writeContents(toAddFile, toAdd.getContents());
-        Commit currhead = getHead();
-
-        if (_stage.getRemove().contains(filename)) {
-            _stage.getRemove().remove(filename);
-            Utils.writeObject(_STAGING, _stage);
+        Map<String, String> tracked = files(getHead());
+        for (String filename : filenames) {
+            String blobID = blobIDs.get(filename);
+            _stage.unremove(filename);
+            if (blobID.equals(tracked.get(filename))) {
+                _stage.unstage(filename);
+            } else {
+                _stage.add(filename, blobID);
+            }
         }
-        if (currhead.getBlobs().containsValue(toAdd.getSHA())
-                && currhead.getBlobs().get(filename).equals(toAdd.getSHA())) {
-            _stage = getStage();
-            _stage.unstage(filename);
-            Utils.writeObject(_STAGING, _stage);
-            return;
+        if (all) {
+            for (String filename : tracked.keySet()) {
+                if (!filenames.contains(filename)
+                        && !_stage.getRemove().contains(filename)) {
+                    _stage.remove(filename);
+                }
+            }
+            for (String filename : new ArrayList<>(_stage.getAdd().keySet())) {
+                if (!filenames.contains(filename)) {
+                    _stage.unstage(filename);
+                }
+            }
         }
-        _stage.add(filename, toAdd.getSHA());
-        Utils.writeObject(_STAGING, _stage);
+        saveStage();
+    }
+
+    /** Helper for ADD - returns true if ARG has any of the characters that
+     * make it a glob pattern.
+     * @param arg - a filename or pattern */
+    private static boolean isGlob(String arg) {
+        return arg.indexOf('*') >= 0 || arg.indexOf('?') >= 0
+                || arg.indexOf('[') >= 0 || arg.indexOf('{') >= 0;
     }
 
     /** the COMMIT command - clone head commit, save "snapshot" of files in add,
      * save it all to a new file in COMMIT.
      * @param message - the commit message
      * @param mergeparent - second parent a commit can gain through a merge */
+    @SuppressWarnings("try")
     public void commit(String message, String mergeparent) {
         if (message.length() <= 0) {
             throw new GitletException("Please enter a commit message. ");
         }
         _stage = getStage();
-        Commit newCommit = new Commit(message, getHead().getSHA(), mergeparent);
-        for (String key: getHead().getBlobs().keySet()) {
-            if (!_stage.getRemove().contains(key)) {
-                newCommit.getBlobs().put(key, getHead().getBlobs().get(key));
-            }
-        }
-        if (_stage.getAdd().isEmpty() && _stage.getRemove().isEmpty()) {
+        Commit head = getHead();
+        if (_stage.isEmpty()) {
             throw new GitletException("No changes added to the commit.");
         }
-        for (String key : _stage.getAdd().keySet()) {
-            String shaiD = _stage.getAdd().get(key);
-            if (!newCommit.getBlobs().containsValue(shaiD)) {
-                newCommit.getBlobs().put(key, shaiD);
-            }
+        HashMap<String, String> changes = new HashMap<>();
+        for (String key : _stage.getRemove()) {
+            changes.put(key, null);
         }
-        _commits = getCommits();
-        _commits.put(newCommit.getSHA(), newCommit);
-        Utils.writeObject(_COMMITS, _commits);
+        changes.putAll(_stage.getAdd());
+        String tree;
+        try (Stats.Phase phase = Stats.phase("commit.tree")) {
+            tree = _trees.update(head.getTree(), changes);
+        }
+        Commit newCommit = new Commit(message, head.getSHA(), mergeparent,
+                tree);
+        saveCommit(newCommit);
         updateActiveBranch(newCommit.getSHA());
         _stage.clear();
-        Utils.writeObject(_STAGING, _stage);
+        saveStage();
     }
 
     /** The RM command - unstages file / stages file for removal
      * / removes file from CWD.
-     * @param filename - name of file to be removed */
-    public void rm(String filename) {
+     * @param path - path of the file to be removed */
+    public void rm(String path) {
+        String filename = relativePath(path);
         _stage = getStage();
         boolean staged = false;
         boolean tracked = false;
         if (_stage.getAdd().containsKey(filename)) {
             staged = true;
             _stage.unstage(filename);
-            Utils.writeObject(_STAGING, _stage);
         }
-        _stage = getStage();
-        if (getHead().getBlobs().containsKey(filename)) {
+        if (files(getHead()).containsKey(filename)) {
             tracked = true;
             _stage.remove(filename);
-            _stage.unstage(filename);
-            Utils.restrictedDelete(filename);
-            Utils.writeObject(_STAGING, _stage);
+            deleteWorkingFile(filename);
         }
         if (!staged && !tracked) {
             throw new GitletException("No reason to remove the file.");
         }
+        saveStage();
     }
 
     /** The LOG command - prints out commits starting at HEAD in a tidy
-     * fashion. */
-    public void log() {
-        _commits = getCommits();
-        Commit head = getHead();
-        while (head != null) {
-            printLog(head);
-            if (head.getParent() != null) {
-                head = _commits.get(head.getParent());
-            } else {
+     * fashion, following first parents. Output is buffered and stops as
+     * soon as whoever reads it goes away, e.g. when piped into head.
+     * @param args - the command, optionally followed by -n COUNT to print at
+     *             most COUNT commits, --since DATE to stop at the first
+     *             commit older than DATE and --renames to list the files
+     *             each commit renamed or copied */
+    public void log(String... args) {
+        LogOptions options = new LogOptions(args);
+        PrintWriter out = logWriter();
+        String id = Utils.readContentsAsString(
+                Utils.join(_BRANCHES, Utils.readContentsAsString(_HEAD)));
+        int printed = 0;
+        while (id != null && printed < options._count) {
+            Commit commit = getCommit(id);
+            if (commit.getTimeStampDate().getTime() < options._since) {
                 break;
             }
+            printLog(out, id, commit, options._renames);
+            printed += 1;
+            if (printed % LOG_CHECK_INTERVAL == 0 && out.checkError()) {
+                return;
+            }
+            id = commit.getParent();
         }
+        out.flush();
     }
 
-    /** The GLOBAL-LOG command - prints all commits ever regardless of branch
-     * . */
-    public void globalLog() {
-        List<String> keys = new ArrayList<>(getCommits().keySet());
-        Collections.reverse(keys);
-        for (String id : keys) {
-            Commit h = getCommits().get(id);
-            printLog(h);
+    /** The GLOBAL-LOG command - prints all commits ever regardless of
+     * branch. Commits are read one at a time as they are printed, and ones
+     * the CommitGraph already knows to be too old are not read at all.
+     * @param args - the command, optionally followed by -n COUNT,
+     *             --since DATE and --renames, as for log */
+    public void globalLog(String... args) {
+        LogOptions options = new LogOptions(args);
+        PrintWriter out = logWriter();
+        CommitGraph graph = getGraph();
+        List<String> keys = commitIDs();
+        int printed = 0;
+        for (int k = keys.size() - 1; k >= 0; k -= 1) {
+            if (printed == options._count) {
+                break;
+            }
+            String id = keys.get(k);
+            int i = graph.indexOf(id);
+            if (i != CommitGraph.NONE && graph.time(i) < options._since) {
+                continue;
+            }
+            Commit commit = getCommit(id);
+            if (commit.getTimeStampDate().getTime() < options._since) {
+                continue;
+            }
+            printLog(out, id, commit, options._renames);
+            printed += 1;
+            if (printed % LOG_CHECK_INTERVAL == 0 && out.checkError()) {
+                return;
+            }
         }
+        out.flush();
     }
 
     /** The FIND command - prints out the sha1 of all commits with the
-     * given commit message or throws an error.
-     * @param message - message of the commit we want to find */
-    public void find(String message) {
-        _commits = getCommits();
-        boolean contains = false;
-        for (String key : _commits.keySet()) {
-            if (_commits.get(key).getMessage().equals(message)) {
-                System.out.println(_commits.get(key).getSHA());
-                contains = true;
-            }
-        }
-        if (!contains) {
+     * given commit message or throws an error. Messages and words are
+     * looked up in the MessageIndex instead of reading every commit.
+     * @param args - the command followed by the message, or by --word WORD,
+     *             --contains TEXT or --regex PATTERN to find commits whose
+     *             message has WORD in it, has TEXT in it (both ignoring
+     *             case) or matches PATTERN */
+    public void find(String... args) {
+        Collection<String> found;
+        if (args.length == 2) {
+            found = getMessageIndex().exact(args[1]);
+        } else if (args.length == 3 && args[1].equals("--word")) {
+            found = getMessageIndex().word(args[2]);
+        } else if (args.length == 3 && args[1].equals("--contains")) {
+            String text = args[2].toLowerCase(Locale.ROOT);
+            Predicate<String> test =
+                message -> message.toLowerCase(Locale.ROOT).contains(text);
+            Set<String> candidates = getMessageIndex().candidates(text);
+            found = scanMessages(candidates == null ? commitIDs()
+                    : new ArrayList<>(candidates), test);
+        } else if (args.length == 3 && args[1].equals("--regex")) {
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(args[2]);
+            } catch (PatternSyntaxException excp) {
+                throw new GitletException("Invalid pattern: " + args[2]);
+            }
+            found = scanMessages(commitIDs(),
+                message -> pattern.matcher(message).find());
+        } else {
+            throw new GitletException("Incorrect operands.");
+        }
+        if (found.isEmpty()) {
             throw new GitletException("Found no commit with that message.");
         }
+        for (String id : found) {
+            System.out.println(id);
+        }
+    }
+
+    /** Helper for FIND - reads the commits in IDS in parallel and returns
+     * those whose message passes TEST, in the same order.
+     * @param ids - sha1s of the commits to check
+     * @param test - decides whether a message matches */
+    private List<String> scanMessages(List<String> ids,
+                                      Predicate<String> test) {
+        return ids.parallelStream()
+            .filter(id -> test.test(loadCommit(id).getMessage()))
+            .collect(Collectors.toList());
+    }
+
+    /** Returns the MessageIndex, first bringing it up to date if it doesn't
+     * cover every commit in the repo. */
+    private MessageIndex getMessageIndex() {
+        MessageIndex index = new MessageIndex(_MESSAGES);
+        List<String> ids = commitIDs();
+        if (index.count() != ids.size()) {
+            index.clear();
+            HashMap<String, String> messages = new HashMap<>();
+            for (String id : ids) {
+                messages.put(id, getCommit(id).getMessage());
+                if (messages.size() == MESSAGE_BATCH) {
+                    index.add(messages);
+                    messages.clear();
+                }
+            }
+            index.add(messages);
+        }
+        return index;
+    }
+
+    /** The COUNT-OBJECTS command - reports how many blobs are stored and
+     * how many distinct file versions across history they stand in for. */
+    public void countObjects() {
+        List<String> blobs = _blobStore.ids();
+        long bytes = _blobStore.diskUsage();
+        Set<String> versions = new HashSet<>();
+        Set<String> trees = new HashSet<>();
+        for (String id : commitIDs()) {
+            Commit c = getCommit(id);
+            if (!trees.add(c.getTree())) {
+                continue;
+            }
+            Map<String, String> tracked = files(c);
+            for (String file : tracked.keySet()) {
+                versions.add(file + "\0" + tracked.get(file));
+            }
+        }
+        Map<String, String> staged = getStage().getAdd();
+        for (String file : staged.keySet()) {
+            versions.add(file + "\0" + staged.get(file));
+        }
+        System.out.println("blobs: " + blobs.size());
+        System.out.println("size on disk: " + bytes + " bytes");
+        System.out.println("file versions: " + versions.size());
+        double ratio = blobs.isEmpty() ? 1.0
+                : (double) versions.size() / blobs.size();
+        System.out.printf("dedup ratio: %.2f%n", ratio);
+    }
+
+    /** The GC command - moves all loose blobs, trees and commits into
+     * packs. Each
+     * file's versions are packed oldest first, so that every version can be
+     * stored as a delta against the one before it. */
+    @SuppressWarnings("try")
+    public void gc() {
+        List<Commit> history = new ArrayList<>();
+        List<String> commitOrder = new ArrayList<>();
+        for (String id : commitIDs()) {
+            history.add(getCommit(id));
+        }
+        history.sort(Comparator.comparing(Commit::getTimeStampDate));
+        TreeMap<String, List<String>> versions = new TreeMap<>();
+        LinkedHashSet<String> treeOrder = new LinkedHashSet<>();
+        for (Commit c : history) {
+            commitOrder.add(c.getSHA());
+            if (treeOrder.contains(c.getTree())) {
+                continue;
+            }
+            treeOrder.addAll(_trees.subtrees(c.getTree()));
+            for (Map.Entry<String, String> e : files(c).entrySet()) {
+                List<String> ids = versions.computeIfAbsent(e.getKey(),
+                    k -> new ArrayList<>());
+                if (!ids.contains(e.getValue())) {
+                    ids.add(e.getValue());
+                }
+            }
+        }
+        List<String> blobOrder = new ArrayList<>();
+        HashMap<String, String> bases = new HashMap<>();
+        Set<String> placed = new HashSet<>();
+        for (List<String> ids : versions.values()) {
+            for (int i = 0; i < ids.size(); i += 1) {
+                if (placed.add(ids.get(i))) {
+                    blobOrder.add(ids.get(i));
+                    if (i > 0) {
+                        bases.put(ids.get(i), ids.get(i - 1));
+                    }
+                }
+            }
+        }
+        int[] blobs;
+        int[] trees;
+        int[] commits;
+        try (Stats.Phase phase = Stats.phase("gc.repack")) {
+            blobs = _blobStore.repack(blobOrder, bases);
+            trees = _trees.store().repack(new ArrayList<>(treeOrder),
+                    new HashMap<>());
+            commits = _commitStore.repack(commitOrder, new HashMap<>());
+        }
+        System.out.printf("Packed %d blobs (%d as deltas), %d trees and %d "
+                + "commits.%n", blobs[0], blobs[1], trees[0], commits[0]);
     }
 
     /** The STATUS command - prints out all Branches, filed staged for Addition
-     * and Removal, Unstaged Changes, Untracked Files. */
-    public void status() {
+     * and Removal, Unstaged Changes, Untracked Files. With --renames, each
+     * file staged for addition that is a rename or copy of a file staged
+     * for removal, or of the old version of one staged as modified, is
+     * followed by where it came from (see Renames).
+     * @param args - the command, optionally followed by --renames */
+    @SuppressWarnings("try")
+    public void status(String... args) {
+        boolean renames = args.length == 2 && args[1].equals("--renames");
+        if (args.length > 1 && !renames) {
+            throw new GitletException("Incorrect operands.");
+        }
         ArrayList<String> branches = new ArrayList<>();
         for (String branch : Utils.plainFilenamesIn(_BRANCHES)) {
             if (!branch.equals("HEAD")) {
@@ -221,43 +571,73 @@ public class Repo {
         }
         ArrayList<String> staged = new ArrayList<>();
         _stage = getStage();
+        Map<String, String> tracked = files(getHead());
+        Map<String, Renames.Rename> origins = new HashMap<>();
+        if (renames) {
+            Map<String, String> gone = new HashMap<>();
+            Map<String, String> kept = new HashMap<>();
+            Map<String, String> added = new HashMap<>();
+            for (String file : _stage.getRemove()) {
+                if (tracked.containsKey(file)) {
+                    gone.put(file, tracked.get(file));
+                }
+            }
+            for (Map.Entry<String, String> e : _stage.getAdd().entrySet()) {
+                String old = tracked.get(e.getKey());
+                if (old == null) {
+                    added.put(e.getKey(), e.getValue());
+                } else {
+                    kept.put(e.getKey(), old);
+                }
+            }
+            for (Renames.Rename r
+                     : Renames.find(gone, kept, added, true, _sketches)) {
+                origins.put(r.to(), r);
+            }
+        }
         for (String filename : _stage.getAdd().keySet()) {
-            staged.add(filename);
+            Renames.Rename origin = origins.get(filename);
+            if (origin == null) {
+                staged.add(filename);
+            } else {
+                staged.add(filename + (origin.copy() ? " (copied from "
+                        : " (renamed from ") + origin.from() + ")");
+            }
         }
-        ArrayList<String> removed = _stage.getRemove();
+        ArrayList<String> removed = new ArrayList<>(_stage.getRemove());
         ArrayList<String> unstaged = new ArrayList<>();
-        for (String file : Utils.plainFilenamesIn(_CWD)) {
-            byte[] cwdContents = Utils.readContents(Utils.join(_CWD, file));
-            if (getHead().getBlobs().containsKey(file) && Utils.join(_BLOBS,
-                    getHead().getBlobs().get(file)).exists()) {
-                byte[] commitContents = Utils.readContents(Utils.join(_BLOBS,
-                        getHead().getBlobs().get(file)));
-                if (!Arrays.equals(cwdContents, commitContents)
-                        && !_stage.getAdd().containsKey(file)) {
+        List<String> cwdFiles = workingFiles();
+        Set<String> present = new HashSet<>(cwdFiles);
+        WorkingIndex index = getIndex();
+        index.retainAll(present);
+        try (Stats.Phase phase = Stats.phase("status.compare")) {
+            for (String file : cwdFiles) {
+                String expected = _stage.getAdd().get(file);
+                if (expected == null) {
+                    expected = tracked.get(file);
+                }
+                if (expected != null && !expected.equals(
+                        index.blobID(Utils.join(_CWD, file), file))) {
                     unstaged.add(file + " (modified)");
                 }
             }
-            if (_stage.getAdd().containsKey(file) && !staged.contains(file)
-                    && !cwdContents.equals(Utils.readContents(Utils.join(_BLOBS,
-                    _stage.getAdd().get(file))))) {
-                unstaged.add(file + " (modified)");
-            }
         }
         for (String file : _stage.getAdd().keySet()) {
-            if (!Utils.plainFilenamesIn(_CWD).contains(file)) {
+            if (!present.contains(file)) {
                 unstaged.add(file + " (deleted)");
             }
         }
-        for (String file : getHead().getBlobs().keySet()) {
-            if (!Utils.plainFilenamesIn(_CWD).contains(file)
+        for (String file : tracked.keySet()) {
+            if (!present.contains(file)
                     && !_stage.getRemove().contains(file)) {
                 unstaged.add(file + " (deleted)");
             }
         }
+        saveIndex();
 
         ArrayList<String> untracked = new ArrayList<>();
-        for (String file : Utils.plainFilenamesIn(_CWD)) {
-            if (!getHead().getBlobs().containsKey(file)
+        for (String file : cwdFiles) {
+            if (!tracked.containsKey(file)
                     && !_stage.getAdd().containsKey(file)) {
                 untracked.add(file);
             }
@@ -303,6 +683,128 @@ public class Repo {
         System.out.print("\n");
     }
 
+    /** The DIFF command - prints what changed in the tracked files as a
+     * unified diff, with DIFF_CONTEXT lines of context around each change.
+     * Can be invoked as
+     *      diff                       the working files against the
+     *                                 staging area: what isn't staged yet
+     *      diff --cached              the staging area against the head
+     *                                 commit: what the next commit will do
+     *      diff COMMIT1 COMMIT2       one commit against another
+     * Only files whose blobs differ are ever read. Commits are compared
+     * tree by tree, skipping directories they share, and working files are
+     * checked against the WorkingIndex, so files that haven't been touched
+     * since they were last hashed are not even opened. Binary files, and
+     * files too big to compare line by line, are only said to differ.
+     * Output is buffered and stops quietly if whoever reads it goes away,
+     * e.g. when piped into head; a file that can't be read is an error.
+     * @param args - the command and its operands */
+    @SuppressWarnings("try")
+    public void diff(String... args) {
+        TreeMap<String, String[]> changes = new TreeMap<>();
+        boolean working = args.length == 1;
+        try (Stats.Phase phase = Stats.phase("diff.files")) {
+            if (working) {
+                _stage = getStage();
+                Map<String, String> expected = new TreeMap<>(files(getHead()));
+                expected.keySet().removeAll(_stage.getRemove());
+                expected.putAll(_stage.getAdd());
+                WorkingIndex index = getIndex();
+                for (Map.Entry<String, String> e : expected.entrySet()) {
+                    File file = Utils.join(_CWD, e.getKey());
+                    String now = file.isFile()
+                        ? index.blobID(file, e.getKey()) : null;
+                    if (!e.getValue().equals(now)) {
+                        changes.put(e.getKey(),
+                                new String[] {e.getValue(), now});
+                    }
+                }
+                saveIndex();
+            } else if (args.length == 2 && args[1].equals("--cached")) {
+                _stage = getStage();
+                String tree = getHead().getTree();
+                for (Map.Entry<String, String> e
+                         : _stage.getAdd().entrySet()) {
+                    String old = _trees.blob(tree, e.getKey());
+                    if (!e.getValue().equals(old)) {
+                        changes.put(e.getKey(),
+                                new String[] {old, e.getValue()});
+                    }
+                }
+                for (String file : _stage.getRemove()) {
+                    String old = _trees.blob(tree, file);
+                    if (old != null) {
+                        changes.put(file, new String[] {old, null});
+                    }
+                }
+            } else if (args.length == 3) {
+                Commit from = getCommit(abbrevSHASearch(args[1]));
+                Commit to = getCommit(abbrevSHASearch(args[2]));
+                if (from == null || to == null) {
+                    throw new GitletException("No commit with that id "
+                            + "exists.");
+                }
+                changes = _trees.changes(from.getTree(), to.getTree());
+            } else {
+                throw new GitletException("Incorrect operands.");
+            }
+        }
+        OutputStream out = new BufferedOutputStream(_out, Utils.BUFFER_SIZE);
+        try (Stats.Phase phase = Stats.phase("diff.write")) {
+            for (Map.Entry<String, String[]> e : changes.entrySet()) {
+                String[] blobs = e.getValue();
+                writeDiff(out, e.getKey(), blobs[0], blobs[1], working);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /** Helper for DIFF - writes the diff of one FILE to OUT.
+     * @param out - where it goes
+     * @param file - the file's path
+     * @param old - its old blob, or null if it didn't exist
+     * @param now - its new blob, or null if it doesn't exist any more
+     * @param working - true if the new version is the file in the CWD
+     *                rather than blob NOW
+     * @throws IOException only if writing to OUT fails; a file or blob that
+     *                     can't be read is an IllegalArgumentException */
+    private void writeDiff(OutputStream out, String file, String old,
+                           String now, boolean working) throws IOException {
+        Diff.Lines empty = new Diff.Lines(new byte[0]);
+        Diff.Lines a = old == null ? empty
+            : readText(_blobStore.open(old));
+        Diff.Lines b;
+        if (now == null) {
+            b = empty;
+        } else if (working) {
+            InputStream in;
+            try {
+                in = Files.newInputStream(Utils.join(_CWD, file).toPath());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            b = readText(in);
+        } else {
+            b = readText(_blobStore.open(now));
+        }
+        String from = old == null ? "/dev/null" : "a/" + file;
+        String to = now == null ? "/dev/null" : "b/" + file;
+        StringBuilder header = new StringBuilder("diff --git a/" + file
+                + " b/" + file + "\n");
+        if (a == null || b == null) {
+            header.append("Binary files " + from + " and " + to
+                    + " differ\n");
+        } else {
+            header.append("--- " + from + "\n+++ " + to + "\n");
+        }
+        out.write(header.toString().getBytes(StandardCharsets.UTF_8));
+        if (a != null && b != null) {
+            Diff.writeUnified(a, b, DIFF_CONTEXT, out);
+        }
+    }
+
     /** CHECK this OUT! 3 methods for the price of 1! Overwrites CWD
      * with specified files.
      * @param args - user input specifying the type of checkout */
@@ -316,6 +818,7 @@ public class Repo {
         if (args.length == 2) {
             checkout3(args);
         }
+        saveIndex();
     }
 
     /** CHECKOUT CASE 1: args in format "checkout -- [file name]", checks out
@@ -323,13 +826,13 @@ public class Repo {
      * @param args - the arguments passed into checkout
      */
     public void checkout1(String... args) {
-        String filename = args[2];
+        String filename = relativePath(args[2]);
         Commit headCommit = getHead();
-        if (!headCommit.getBlobs().containsKey(filename)) {
+        if (!files(headCommit).containsKey(filename)) {
             throw new GitletException("File does not "
                     + "exist in that commit.");
         }
-        if (headCommit.getBlobs().containsKey(filename)) {
+        if (files(headCommit).containsKey(filename)) {
             blobOverwrite(filename, headCommit);
         }
     }
@@ -340,16 +843,15 @@ public class Repo {
      */
     public void checkout2(String... args) {
         String commitID = abbrevSHASearch(args[1]);
-        String filename = args[3];
+        String filename = relativePath(args[3]);
         if (!args[2].equals("--")) {
             throw new GitletException("Incorrect operands.");
         }
-        _commits = getCommits();
-        Commit c = _commits.get(commitID);
+        Commit c = getCommit(commitID);
         if (c == null) {
             throw new GitletException("No commit with that id exists.");
         }
-        if (c.getBlobs().containsKey(filename)) {
+        if (files(c).containsKey(filename)) {
             blobOverwrite(filename, c);
         } else {
             throw new GitletException("File does not "
@@ -364,26 +866,17 @@ public class Repo {
     public void checkout3(String... args) {
         String branchName = args[1];
         File branch = Utils.join(_BRANCHES, branchName);
-        _commits = getCommits();
         if (!Utils.join(_BRANCHES, branchName).exists()) {
             throw new GitletException("No such branch exists.");
         }
-        Commit branchHead = _commits.get(Utils.readContentsAsString(branch));
+        Commit branchHead = getCommit(Utils.readContentsAsString(branch));
         Commit currentHead = getHead();
-        for (String file : Utils.plainFilenamesIn(_CWD)) {
-            if (!currentHead.getBlobs().containsKey(file)) {
-                if (branchHead.getBlobs().containsKey(file)) {
-                    byte[] cwdFileContents =
-                            Utils.readContents(Utils.join(_CWD, file));
-                    byte[] overWriteContents =
-                            Utils.readContents(
-                                    Utils.join(_BLOBS, branchHead.getBlobs()
-                                            .get(file)));
-                    if (!cwdFileContents.equals(overWriteContents)) {
-                        throw new GitletException("There is an "
-                                + "untracked file in the way; delete it, "
-                                + "or add and commit it first.");
-                    }
+        for (String file : workingFiles()) {
+            if (!files(currentHead).containsKey(file)) {
+                if (files(branchHead).containsKey(file)) {
+                    throw new GitletException("There is an "
+                            + "untracked file in the way; delete it, "
+                            + "or add and commit it first.");
                 }
             }
         }
@@ -391,15 +884,10 @@ public class Repo {
             throw new GitletException("No need to checkout "
                     + "the current branch.");
         }
-        for (String file : branchHead.getBlobs().keySet()) {
-            blobOverwrite(file, branchHead);
-        }
-        for (String file : getHead().getBlobs().keySet()) {
-            if (!branchHead.getBlobs().keySet().contains(file)) {
-                Utils.restrictedDelete(file);
-            }
-        }
+        materialize(currentHead, branchHead, null);
+        _stage = getStage();
         _stage.clear();
+        saveStage();
         Utils.writeContents(_HEAD, branchName);
     }
 
@@ -434,38 +922,41 @@ public class Repo {
      * @param commitID - sha1 of the commit being reset to */
     public void reset(String commitID) {
         String currentBranch = Utils.readContentsAsString(_HEAD);
-        _commits = getCommits();
         _stage = getStage();
-        if (!_commits.containsKey(commitID)) {
+        Commit newHead = getCommit(abbrevSHASearch(commitID));
+        if (newHead == null) {
             throw new GitletException("No commit with that id exists.");
         }
-        Commit newHead = _commits.get(commitID);
-        for (String file : Utils.plainFilenamesIn(_CWD)) {
-            if (!getHead().getBlobs().containsKey(file)
-                    && newHead.getBlobs().containsKey(file)) {
+        for (String file : workingFiles()) {
+            if (!files(getHead()).containsKey(file)
+                    && files(newHead).containsKey(file)) {
                 throw new GitletException("There is an untracked "
                         + "file in the way; delete it, or "
                         + "add and commit it first.");
             }
         }
-        for (String file : newHead.getBlobs().keySet()) {
-            blobOverwrite(file, newHead);
-        }
-        for (String file : Utils.plainFilenamesIn(_CWD)) {
-            if (!newHead.getBlobs().containsKey(file)) {
-                Utils.restrictedDelete(file);
-            }
-        }
+        materialize(null, newHead, workingFiles());
         _stage.clear();
-        Utils.writeObject(_STAGING, _stage);
+        saveStage();
+        saveIndex();
         Utils.writeContents(Utils.join(_BRANCHES, currentBranch),
                 newHead.getSHA());
         Utils.writeContents(_HEAD, currentBranch);
     }
 
     /** The MERGE command - Merges files from the given branch
-     * into the current branch.
+     * into the current branch. The trees of the split point, the head and
+     * the given branch are compared in a single pass (see TreeStore.merge),
+     * which only looks into directories the given branch changed. Every
+     * path found is sorted into a plan: take the given branch's version,
+     * which may mean deleting the file, or mark a conflict. The plan is
+     * checked for untracked files in the way before anything is touched,
+     * then the files are written out in parallel and staged all at once.
+     * Each of these steps is a phase of its own under --stats. A file one
+     * side changed and the other renamed is merged into the renamed file
+     * rather than being a conflict; see followRenames.
      * @param branchName - name of the branch to merge with the active branch */
+    @SuppressWarnings("try")
     public void merge(String branchName) {
         if (!Utils.join(_BRANCHES, branchName).exists()) {
             throw new GitletException("A branch with that "
@@ -475,230 +966,706 @@ public class Repo {
             throw new GitletException("Cannot merge a branch with itself.");
         }
         _stage = getStage();
-        if (!_stage.getAdd().keySet().isEmpty()
-                || !_stage.getRemove().isEmpty()) {
+        if (!_stage.isEmpty()) {
             throw new GitletException("You have uncommitted changes.");
         }
-        boolean conflict = false;
-        _commits = getCommits();
         Commit head = getHead();
-        Commit mergeHead = _commits.get(Utils.readContentsAsString
+        Commit mergeHead = getCommit(Utils.readContentsAsString
                 (Utils.join(_BRANCHES, branchName)));
-        Commit commonAncestor = _commits.get(findSplit(head, mergeHead));
-        if (commonAncestor.getSHA().equals(mergeHead.getSHA())) {
+        boolean behind;
+        boolean ahead;
+        try (Stats.Phase phase = Stats.phase("merge.base")) {
+            MergeBase bases = mergeBase(head, mergeHead);
+            behind = bases.isAncestor(mergeHead.getSHA(), head.getSHA());
+            ahead = !behind
+                && bases.isAncestor(head.getSHA(), mergeHead.getSHA());
+        }
+        if (behind) {
             throw new GitletException("Given branch is an "
                     + "ancestor of the current branch.");
         }
-        if (whosYourDaddy(head).contains(mergeHead.getSHA())
-                || whosYourDaddy(mergeHead).contains(head.getSHA())) {
-            checkout("checkout", branchName);
+        if (ahead) {
+            fastForward(head, mergeHead);
             System.out.println("Current branch fast-forwarded.");
             return;
         }
-        for (String file : Utils.plainFilenamesIn(_CWD)) {
-            if (!getHead().getBlobs().containsKey(file)
-                    && mergeHead.getBlobs().containsKey(file)) {
-                throw new GitletException("There is an untracked file in "
-                        + "the way; delete it, or add and commit it first.");
+        Commit commonAncestor = getCommit(findSplit(head, mergeHead));
+        TreeMap<String, String[]> paths;
+        try (Stats.Phase phase = Stats.phase("merge.plan")) {
+            paths = _trees.merge(commonAncestor.getTree(), head.getTree(),
+                    mergeHead.getTree());
+        }
+        Map<String, String> taken = new TreeMap<>();
+        Map<String, String[]> conflicts = new TreeMap<>();
+        for (Map.Entry<String, String[]> e : paths.entrySet()) {
+            String[] blobs = e.getValue();
+            if (blobs[1] == null) {
+                checkUntracked(e.getKey(), files(head));
             }
-        }
-        Set<String> allFiles = new TreeSet<>(head.getBlobs().keySet());
-        allFiles.addAll(mergeHead.getBlobs().keySet());
-        allFiles.addAll(commonAncestor.getBlobs().keySet());
-        int i = 0;
-        for (String file : allFiles) {
-            boolean occured = mergeLogic(commonAncestor, head, mergeHead, file);
-            if (occured) {
-                i++;
+            if (Objects.equals(blobs[0], blobs[1])) {
+                taken.put(e.getKey(), blobs[2]);
+            } else {
+                conflicts.put(e.getKey(), blobs);
             }
         }
-        if (i > 0) {
-            conflict = true;
-        }
-        if (_stage.getAdd().isEmpty() && _stage.getRemove().isEmpty()) {
+        if (paths.isEmpty()) {
             throw new GitletException("No changes added to the commit.");
         }
+        try (Stats.Phase phase = Stats.phase("merge.renames")) {
+            followRenames(commonAncestor.getTree(), head.getTree(), paths,
+                    taken, conflicts);
+        }
+        updateWorkingFiles(taken, "merge.write");
+        Map<String, String> resolved = new ConcurrentHashMap<>();
+        Set<String> conflicted = ConcurrentHashMap.newKeySet();
+        try (Stats.Phase phase = Stats.phase("merge.content")) {
+            Utils.forEachParallel(conflicts.keySet(), file -> {
+                resolved.put(file,
+                        mergeConflict(conflicts.get(file), file, conflicted));
+            });
+        }
+        try (Stats.Phase phase = Stats.phase("merge.stage")) {
+            for (Map.Entry<String, String> e : taken.entrySet()) {
+                if (e.getValue() == null) {
+                    _stage.remove(e.getKey());
+                } else {
+                    _stage.add(e.getKey(), e.getValue());
+                }
+            }
+            for (Map.Entry<String, String> e : resolved.entrySet()) {
+                _stage.add(e.getKey(), e.getValue());
+            }
+        }
+        saveIndex();
         commit("Merged " + branchName + " into "
                 + Utils.readContentsAsString(_HEAD) + ".", mergeHead.getSHA());
-        if (conflict) {
+        if (!conflicted.isEmpty()) {
             System.out.println("Encountered a merge conflict.");
         }
     }
 
+    /** Helper for MERGE - changes the plan so that changes to a file one
+     * side renamed, made by the other side, go to where it was renamed to.
+     * Without this, every such file would be a conflict between a deleted
+     * file and a changed one. Renames are only looked for (see Renames) if
+     * there are conflicts of that kind, and only among the files the side
+     * that deleted them added. A rename whose new path the other side also
+     * added is left alone.
+     * @param base - the tree of the split point
+     * @param ours - the tree of the head commit
+     * @param paths - what TreeStore.merge found
+     * @param taken - the files taken from the given branch, by path
+     * @param conflicts - the files changed on both sides, by path */
+    private void followRenames(String base, String ours,
+                               Map<String, String[]> paths,
+                               Map<String, String> taken,
+                               Map<String, String[]> conflicts) {
+        boolean theirsGone = false;
+        boolean oursGone = false;
+        for (String[] blobs : conflicts.values()) {
+            theirsGone |= blobs[0] != null && blobs[2] == null;
+            oursGone |= blobs[0] != null && blobs[1] == null;
+        }
+        if (theirsGone) {
+            Map<String, String> gone = new HashMap<>();
+            Map<String, String> added = new HashMap<>();
+            for (Map.Entry<String, String[]> e : paths.entrySet()) {
+                String[] blobs = e.getValue();
+                if (blobs[0] != null && blobs[2] == null) {
+                    gone.put(e.getKey(), blobs[0]);
+                } else if (blobs[0] == null && blobs[1] == null) {
+                    added.put(e.getKey(), blobs[2]);
+                }
+            }
+            for (Renames.Rename r
+                     : Renames.find(gone, Map.of(), added, false, _sketches)) {
+                String[] blobs = conflicts.get(r.from());
+                if (blobs != null && blobs[2] == null) {
+                    conflicts.remove(r.from());
+                    taken.put(r.from(), null);
+                    taken.remove(r.to());
+                    plan(r.to(), new String[] {blobs[0], blobs[1],
+                        paths.get(r.to())[2]}, taken, conflicts);
+                }
+            }
+        }
+        if (oursGone) {
+            Map<String, String[]> changes = _trees.changes(base, ours);
+            Map<String, String> gone = new HashMap<>();
+            Map<String, String> added = new HashMap<>();
+            for (Map.Entry<String, String[]> e : changes.entrySet()) {
+                String[] blobs = e.getValue();
+                if (blobs[1] == null) {
+                    gone.put(e.getKey(), blobs[0]);
+                } else if (blobs[0] == null && !paths.containsKey(e.getKey())) {
+                    added.put(e.getKey(), blobs[1]);
+                }
+            }
+            for (Renames.Rename r
+                     : Renames.find(gone, Map.of(), added, false, _sketches)) {
+                String[] blobs = conflicts.get(r.from());
+                if (blobs != null && blobs[1] == null) {
+                    conflicts.remove(r.from());
+                    plan(r.to(), new String[] {blobs[0],
+                        changes.get(r.to())[1], blobs[2]}, taken, conflicts);
+                }
+            }
+        }
+    }
+
+    /** Helper for MERGE - adds FILE, with BLOBS at the split point, in the
+     * head and in the given branch, to the plan: taken from whichever side
+     * changed it if only one did, or else a conflict.
+     * @param file - the path
+     * @param blobs - its blob on each side
+     * @param taken - the files to take from one side, by path
+     * @param conflicts - the files changed on both sides, by path */
+    private static void plan(String file, String[] blobs,
+                             Map<String, String> taken,
+                             Map<String, String[]> conflicts) {
+        if (Objects.equals(blobs[0], blobs[1])) {
+            taken.put(file, blobs[2]);
+        } else if (Objects.equals(blobs[0], blobs[2])) {
+            taken.put(file, blobs[1]);
+        } else {
+            conflicts.put(file, blobs);
+        }
+    }
+
     /** Helper for MERGE - finds closest common ancestor given two commits.
+     * Both parents of merge commits are followed. When criss-cross merges
+     * leave more than one best common ancestor, the newest one is used.
      * @param head - head commit of current branch
      * @param other - head commit of other branch
      * @return the sha1 of the commit at the split point */
+    @SuppressWarnings("try")
     public String findSplit(Commit head, Commit other) {
-        _commits = getCommits();
-        ArrayList<String> headAncestry = whosYourDaddy(head);
-        ArrayList<String> otherAncestry = whosYourDaddy(other);
-        for (String ancestor : headAncestry) {
-            if (otherAncestry.contains(ancestor)) {
-                return ancestor;
-            }
+        try (Stats.Phase phase = Stats.phase("merge.base")) {
+            List<String> bases = mergeBase(head, other)
+                    .find(head.getSHA(), other.getSHA());
+            return bases.isEmpty() ? null : bases.get(0);
         }
-        return null;
     }
 
-    /** Helper for the helper - returns the ancestry of a commit.
-     * @param c - the commit whose ancestry we want */
-    public ArrayList<String> whosYourDaddy(Commit c) {
-        ArrayList<String> ancestry = new ArrayList<>();
-        ancestry.add(c.getSHA());
-        while (c != null) {
-            if (c.getMergeParent() != null) {
-                ancestry.add(c.getMergeParent());
-            }
-            ancestry.add(c.getParent());
-            if (c.getParent() != null) {
-                c = _commits.get(c.getParent());
-            } else {
-                break;
-            }
-        }
-        return ancestry;
+    /** Helper for MERGE - returns a MergeBase over the CommitGraph, first
+     * making sure the graph holds commits A and B.
+     * @param a - a commit
+     * @param b - another commit */
+    private MergeBase mergeBase(Commit a, Commit b) {
+        CommitGraph graph = getGraph();
+        graph.ensure(a.getSHA(), this::getCommit);
+        graph.ensure(b.getSHA(), this::getCommit);
+        return new MergeBase(graph);
     }
 
-    /** Helper for MERGE - handles the logic of comparing contents
-     * of commits HEAD and OTHER.
-     * @param split - the split point, or most recent common ancestor
-     * @param head - the head commit of the active branch
-     * @param other - the head commit of the branch being merged with
-     * @param file - the name of the file
-     * @return boolean indicating if a conflict occurred or not */
-    public boolean mergeLogic(Commit split, Commit head,
-                              Commit other, String file) {
-        HashMap<String, String> s = split.getBlobs();
-        HashMap<String, String> h = head.getBlobs();
-        HashMap<String, String> o = other.getBlobs();
-        _stage = getStage();
-        if (s.containsKey(file)) {
-            if (s.get(file).equals(h.get(file)) && !s.get(file)
-                    .equals(o.get(file)) && o.containsKey(file)) {
-                checkout("checkout", other.getSHA(), "--", file);
-                _stage.add(file, o.get(file));
-                Utils.writeObject(_STAGING, _stage);
-                return false;
-            }
-            if (s.get(file).equals(o.get(file))
-                    && !s.get(file).equals(h.get(file))
-                    && h.containsKey(file)) {
-                return false;
-            }
-            if (h.containsKey(file) && o.containsKey(file)
-                    && h.get(file).equals(o.get(file))
-                    || !h.containsKey(file) && !o.containsKey(file)) {
-                return false;
-            }
-            if (s.get(file).equals(h.get(file)) && !o.containsKey(file)) {
-                rm(file);
-                Utils.writeObject(_STAGING, _stage);
-                return false;
-            }
-            if (s.get(file).equals(o.get(file)) && !h.containsKey(file)) {
-                return false;
-            }
-        }
-        if (!s.containsKey(file)) {
-            if (h.containsKey(file) && !o.containsKey(file)) {
-                return false;
-            }
-            if (!h.containsKey(file) && o.containsKey(file)) {
-                checkout("checkout", other.getSHA(), "--", file);
-                _stage.add(file, o.get(file));
-                Utils.writeObject(_STAGING, _stage);
-                return false;
-            }
-        }
-        if (s.containsKey(file) && !s.get(file).equals(h.get(file))
-                && !s.get(file).equals(o.get(file))
-                && h.containsKey(file) && o.containsKey(file)
-                && !h.get(file).equals(o.get(file))
-                || s.containsKey(file) && h.containsKey(file)
-                && !s.get(file).equals(h.get(file)) && !o.containsKey(file)
-                || s.containsKey(file) && o.containsKey(file)
-                && !s.get(file).equals(o.get(file)) && !h.containsKey(file)
-                || !s.containsKey(file) && !h.get(file).equals(o.get(file))) {
-            return mergeConflict(h, o, file);
-        }
-
-        Utils.writeObject(_STAGING, _stage);
-        return false;
-    }
-
-    /** Handles the conflict situation during amerge and overwrites file
-     * accordingly.
-     * @param h - HashMap contained in the head commit
-     * @param o - HashMap contained in the "other" commit
+    /** Handles the conflict situation during a merge, where FILE changed
+     * on both sides, by overwriting FILE. If the split point, the head and
+     * the other commit all have it as text, the two versions are merged
+     * line by line (see LineMerge), and only the parts both sides changed
+     * differently are conflicts. Otherwise the whole file is one conflict
+     * holding both versions of it. The result is stored as a blob, and
+     * FILE is added to CONFLICTED if it has a conflict in it. Safe to call
+     * from several threads at once for different files.
+     * @param blobs - blob of the file at the split point, in the head
+     *              commit and in the "other" commit, each of which may be
+     *              null
      * @param file - Filename
-     * @return - boolean indicating if there was a conflict
+     * @param conflicted - collects the files left with conflicts
+     * @return - the sha1 of the merged file's blob
      */
-    public boolean mergeConflict(HashMap<String,
-        String> h, HashMap<String, String> o, String file) {
-        String headContents, otherContents;
-        if (h.containsKey(file)) {
-            headContents = Utils.readContentsAsString(Utils.join
-                    (_BLOBS, h.get(file)));
-        } else {
-            headContents = "";
-        }
-        if (o.containsKey(file)) {
-            otherContents = Utils.readContentsAsString(Utils.join
-                    (_BLOBS, o.get(file)));
-        } else {
-            otherContents = "";
+    public String mergeConflict(String[] blobs, String file,
+                                Set<String> conflicted) {
+        String head = blobs[1];
+        String other = blobs[2];
+        Diff.Lines[] text = new Diff.Lines[blobs.length];
+        for (int i = 0; i < blobs.length && text != null; i += 1) {
+            text[i] = blobs[i] == null ? null
+                : readText(_blobStore.open(blobs[i]));
+            if (text[i] == null) {
+                text = null;
+            }
         }
         File iRememberYouWasConflicted = Utils.join(_CWD, file);
-        String contents = "<<<<<<< HEAD" + "\n"
-                + headContents
-                + "=======" + "\n"
-                + otherContents
-                + ">>>>>>>" + "\n";
-        Utils.writeContents(iRememberYouWasConflicted, contents);
+        iRememberYouWasConflicted.getParentFile().mkdirs();
+        try (OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(iRememberYouWasConflicted))) {
+            if (text != null) {
+                if (LineMerge.merge(text[0], text[1], text[2], out)) {
+                    conflicted.add(file);
+                }
+            } else {
+                conflicted.add(file);
+                out.write("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8));
+                if (head != null) {
+                    copyBlob(head, out);
+                }
+                out.write("=======\n".getBytes(StandardCharsets.UTF_8));
+                if (other != null) {
+                    copyBlob(other, out);
+                }
+                out.write(">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
         Blob newBlob = new Blob(iRememberYouWasConflicted);
-        _stage.add(file, newBlob.getSHA());
-        Utils.writeObject(_STAGING, _stage);
-        return true;
+        _blobStore.put(newBlob.getSHA(), iRememberYouWasConflicted);
+        getIndex().record(iRememberYouWasConflicted, file, newBlob.getSHA());
+        return newBlob.getSHA();
+    }
+
+    /** Reads the contents of a blob or file from IN, which is closed
+     * afterwards, and returns its lines, or null if it is binary or too big
+     * to merge or diff line by line.
+     * @param in - the contents */
+    private Diff.Lines readText(InputStream in) {
+        byte[] data;
+        try (in) {
+            data = in.readNBytes(MAX_LINE_MERGE + 1);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (data.length > MAX_LINE_MERGE) {
+            return null;
+        }
+        Diff.Lines lines = new Diff.Lines(data);
+        return lines.binary() ? null : lines;
     }
 
 
 
     /** Returns the most recent COMMIT in the HEAD branch. */
-    @SuppressWarnings("unchecked")
     public Commit getHead() {
         String headName = Utils.readContentsAsString(_HEAD);
         File headFile = Utils.join(_BRANCHES, headName);
         String headID = Utils.readContentsAsString(headFile);
-        _commits = Utils.readObject(_COMMITS, TreeMap.class);
-        Commit currHead = _commits.get(headID);
-        return currHead;
+        return getCommit(headID);
+    }
+
+    /** Loads a single COMMIT from the commit store.
+     * @param commitID - full sha1 of the commit
+     * @return the commit, or null if no such commit exists */
+    public Commit getCommit(String commitID) {
+        if (commitID == null) {
+            return null;
+        }
+        return _commitCache.get(commitID, id -> {
+            if (!_commitStore.contains(id)) {
+                return null;
+            }
+            return loadCommit(id);
+        });
+    }
+
+    /** Reads commit ID from the commit store, bypassing _commitCache, so
+     * that it is safe to call from several threads at once.
+     * @param id - the sha1 of a commit that exists */
+    private Commit loadCommit(String id) {
+        return Commit.parse(_commitStore.readAll(id));
+    }
+
+    /** Writes a COMMIT to its own file in the commit store.
+     * @param commit - the commit to save */
+    public void saveCommit(Commit commit) {
+        String id = commit.getSHA();
+        _commitCache.put(id, commit);
+        if (_commitStore.contains(id)) {
+            return;
+        }
+        _commitStore.put(id, commit.toBytes());
+        getGraph().ensure(id, this::getCommit);
+        MessageIndex messages = new MessageIndex(_MESSAGES);
+        if (messages.count() >= 0) {
+            messages.add(Map.of(id, commit.getMessage()));
+        }
+    }
+
+    /** Returns the CommitGraph, reading it in the first time it is needed.
+     * Commits it does not know about yet are added by CommitGraph.ensure. */
+    public CommitGraph getGraph() {
+        if (_graph == null) {
+            _graph = new CommitGraph(_COMMIT_GRAPH);
+        }
+        return _graph;
     }
 
+    /** Returns the sha1 of every commit ever made, in sorted order, without
+     * loading any of them. */
+    public List<String> commitIDs() {
+        return _commitStore.ids();
+    }
 
-    /** Returns the TreeMap of COMMIT objects representing
-     * all commits ever made. */
+    /** Brings a repo made by an older version of gitlet up to
+     * FORMAT_VERSION, one step at a time. Does nothing for repos that are
+     * already up to date. The StagingArea is always written back out in
+     * the current format. The WorkingIndex is only a cache, and older
+     * versions may have written it in a different form, so it is thrown
+     * away. */
+    @SuppressWarnings("try")
+    public void upgrade() {
+        int version = formatVersion();
+        if (version == FORMAT_VERSION) {
+            return;
+        }
+        if (version > FORMAT_VERSION) {
+            throw new GitletException("This repo was made by a newer "
+                    + "version of Gitlet.");
+        }
+        try (Stats.Phase phase = Stats.phase("upgrade")) {
+            _TREES.mkdir();
+            _INDEX.delete();
+            if (version < 1) {
+                splitCommits();
+            }
+            if (version < 2) {
+                rehashBlobs();
+            } else if (version < 4) {
+                rehashCommits();
+            } else if (version < 5) {
+                recodeCommits();
+            }
+            _stage = getStage();
+            saveStage();
+        }
+        Utils.writeContents(_VERSION, Integer.toString(FORMAT_VERSION));
+    }
+
+    /** Returns the format version of the repo on disk. Repos from before
+     * versions were written down are 0 if they still keep every commit in a
+     * single file and 1 otherwise. */
+    private int formatVersion() {
+        if (_VERSION.isFile()) {
+            return Integer.parseInt(
+                    Utils.readContentsAsString(_VERSION).trim());
+        }
+        return _COMMITS.isDirectory() ? 1 : 0;
+    }
+
+    /** Upgrade step 1: the old single serialized TreeMap of commits is
+     * split into one file per COMMIT. */
     @SuppressWarnings("unchecked")
-    public TreeMap<String, Commit> getCommits() {
-        return Utils.readObject(_COMMITS, TreeMap.class);
+    private void splitCommits() {
+        File tmp = Utils.join(_GITLETREPO, "commits.tmp");
+        if (_COMMITS.isFile()) {
+            TreeMap<String, Commit> legacy =
+                    Utils.readObject(_COMMITS, TreeMap.class);
+            tmp.mkdir();
+            for (String id : legacy.keySet()) {
+                Utils.writeObject(Utils.join(tmp, id), legacy.get(id));
+            }
+            _COMMITS.delete();
+        }
+        if (!_COMMITS.exists() && !tmp.renameTo(_COMMITS)) {
+            throw new GitletException("Could not upgrade the commit store.");
+        }
+    }
+
+    /** Upgrade step 2: blob ids used to cover the file's name as well as its
+     * contents. Every blob is re-stored under the SHA-1 of its contents
+     * alone, which merges duplicates, and history is rewritten to match. */
+    private void rehashBlobs() {
+        HashMap<String, String> blobIDs = new HashMap<>();
+        for (String old : _blobStore.ids()) {
+            String id = Blob.idOf(_blobStore.open(old));
+            _blobStore.put(id, _blobStore.open(old));
+            blobIDs.put(old, id);
+        }
+        rewriteHistory(blobs -> {
+            HashMap<String, String> result = new HashMap<>();
+            for (String file : blobs.keySet()) {
+                String id = blobs.get(file);
+                result.put(file, blobIDs.getOrDefault(id, id));
+            }
+            return result;
+        });
+        _stage = getStage();
+        for (String file : new ArrayList<>(_stage.getAdd().keySet())) {
+            String id = _stage.getAdd().get(file);
+            _stage.add(file, blobIDs.getOrDefault(id, id));
+        }
+        saveStage();
+        Set<String> kept = new HashSet<>(blobIDs.values());
+        for (String old : blobIDs.keySet()) {
+            if (!kept.contains(old)) {
+                _blobStore.delete(old);
+            }
+        }
+    }
+
+    /** Upgrade steps 3 and 4: commit ids used to be the SHA-1 of the
+     * serialized COMMIT, worked out again every time one was needed, and
+     * each commit used to hold one flat map of all its files. Every commit
+     * is rebuilt so that it points to a TREE, and its id is the hash of its
+     * contents alone and is saved along with it. Since rewriteHistory always
+     * writes commits in the current format, step 2 takes care of this
+     * too. */
+    private void rehashCommits() {
+        rewriteHistory(blobs -> blobs);
+    }
+
+    /** Upgrade step 5: commits used to be stored with Java serialization.
+     * Every commit is written out again in the Codec format to a fresh
+     * store, which then takes the place of the old one. Commit ids don't
+     * change. Each move is a rename, so an upgrade that gets cut off
+     * picks up where it left off the next time. */
+    private void recodeCommits() {
+        File fresh = Utils.join(_GITLETREPO, "commits.tmp");
+        File old = Utils.join(_GITLETREPO, "commits.old");
+        if (!old.exists()) {
+            fresh.mkdir();
+            ObjectStore store = new ObjectStore(fresh, false);
+            for (String id : commitIDs()) {
+                store.put(id, loadCommit(id).toBytes());
+            }
+            if (!_COMMITS.renameTo(old)) {
+                throw new GitletException("Could not upgrade the commit "
+                        + "store.");
+            }
+        }
+        if (!_COMMITS.exists() && !fresh.renameTo(_COMMITS)) {
+            throw new GitletException("Could not upgrade the commit store.");
+        }
+        _commitStore = new ObjectStore(_COMMITS, false);
+        deleteAll(old);
+    }
+
+    /** Deletes FILE, and everything in it if it is a directory.
+     * @param file - the file or directory */
+    private static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+
+    /** Rebuilds every commit in the repo, parents before children, with its
+     * blob mapping passed through BLOBS. Branches are moved to the rebuilt
+     * commits and the old ones are deleted.
+     * @param blobs - computes a rebuilt commit's blobs from the old ones
+     * @return a map from old commit ids to new ones */
+    private HashMap<String, String> rewriteHistory(
+            UnaryOperator<HashMap<String, String>> blobs) {
+        _COMMIT_GRAPH.delete();
+        _graph = null;
+        new MessageIndex(_MESSAGES).clear();
+        HashMap<String, Commit> old = new HashMap<>();
+        for (String id : commitIDs()) {
+            old.put(id, getCommit(id));
+        }
+        HashMap<String, String> newIDs = new HashMap<>();
+        ArrayDeque<String> todo = new ArrayDeque<>();
+        for (String id : old.keySet()) {
+            todo.push(id);
+            while (!todo.isEmpty()) {
+                String next = todo.peek();
+                Commit c = old.get(next);
+                boolean ready = !newIDs.containsKey(next);
+                for (String p : new String[] {c.getParent(),
+                                              c.getMergeParent()}) {
+                    if (ready && old.containsKey(p)
+                            && !newIDs.containsKey(p)) {
+                        todo.push(p);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    HashMap<String, String> tracked = blobs.apply(
+                        new HashMap<>(c.getTree() == null
+                            ? c.legacyBlobs() : files(c)));
+                    Commit rebuilt = new Commit(c,
+                            newIDs.getOrDefault(c.getParent(), c.getParent()),
+                            newIDs.getOrDefault(c.getMergeParent(),
+                                    c.getMergeParent()),
+                            _trees.build(tracked));
+                    saveCommit(rebuilt);
+                    newIDs.put(next, rebuilt.getSHA());
+                }
+                if (newIDs.containsKey(next)) {
+                    todo.pop();
+                }
+            }
+        }
+        for (String branch : Utils.plainFilenamesIn(_BRANCHES)) {
+            if (!branch.equals("HEAD")) {
+                File branchFile = Utils.join(_BRANCHES, branch);
+                String id = Utils.readContentsAsString(branchFile);
+                Utils.writeContents(branchFile, newIDs.getOrDefault(id, id));
+            }
+        }
+        Set<String> kept = new HashSet<>(newIDs.values());
+        for (String id : old.keySet()) {
+            if (!kept.contains(id)) {
+                _commitCache.invalidate(id);
+            }
+        }
+        _commitStore.prune(kept);
+        return newIDs;
     }
 
     /** Returns the StagingArea. */
     public StagingArea getStage() {
-        return Utils.readObject(_STAGING, StagingArea.class);
+        return _stageCache.get(_STAGING,
+            f -> StagingArea.load(f, _STAGE_JOURNAL));
+    }
+
+    /** Returns the WorkingIndex, reading it in the first time it is needed.
+     * Repos that have never had one start out with an empty index. */
+    public WorkingIndex getIndex() {
+        if (_index == null) {
+            if (_INDEX.isFile()) {
+                _index = WorkingIndex.parse(Utils.readContents(_INDEX));
+            } else {
+                _index = new WorkingIndex();
+            }
+        }
+        return _index;
+    }
+
+    /** Writes the WorkingIndex back to _INDEX if anything in it changed. */
+    public void saveIndex() {
+        if (_index != null && _index.isDirty()) {
+            Utils.writeContents(_INDEX, _index.toBytes());
+            _index.markClean();
+        }
+    }
+
+    /** Saves the changes made to _stage, in _STAGE_JOURNAL or by
+     * rewriting _STAGING, and remembers it as the current StagingArea. */
+    public void saveStage() {
+        _stage.save(_STAGING, _STAGE_JOURNAL);
+        _stageCache.put(_STAGING, _stage);
+    }
+
+    /** Forgets everything read from .gitlet that another process could
+     * have changed since: the staging area, the WorkingIndex, a stale
+     * CommitGraph and the lists of packs. The caches of commits, trees and
+     * the files of each tree are kept, since those never change once
+     * written. Used by the Daemon between commands. */
+    void refresh() {
+        _stageCache.invalidate(_STAGING);
+        _stage = new StagingArea();
+        _index = null;
+        if (_graph != null && !_graph.isCurrent()) {
+            _graph = null;
+        }
+        _blobStore.refresh();
+        _sketches.refresh();
+        _commitStore.refresh();
+        _trees.store().refresh();
     }
 
     /** Avoids duplicate code in log and global-log.
-     * @param commit - the commit whose contents will get printed */
-    public void printLog(Commit commit) {
-        SimpleDateFormat formatter = new
-                SimpleDateFormat("EEE MMM d HH:mm:ss Y Z");
-        System.out.println("===");
-        System.out.println("commit " + commit.getSHA());
-        System.out.println("Date: " + formatter.format
-                (commit.getTimeStampDate()));
-        System.out.println(commit.getMessage());
-        System.out.print("\n");
+     * @param out - where to print
+     * @param id - the sha1 of the commit
+     * @param commit - the commit whose contents will get printed
+     * @param renames - true to list the files the commit renamed or
+     *                copied after its message, one per line in the form
+     *                " rename OLD => NEW (SCORE%)" or " copy ..." */
+    public void printLog(PrintWriter out, String id, Commit commit,
+                         boolean renames) {
+        out.print("===\n");
+        out.print("commit " + id + "\n");
+        out.print("Date: " + _dateFormat.format(commit.getTimeStampDate())
+                + "\n");
+        out.print(commit.getMessage() + "\n");
+        if (renames && commit.getParent() != null) {
+            for (Renames.Rename r : renames(commit)) {
+                out.print((r.copy() ? " copy " : " rename ") + r.from()
+                        + " => " + r.to() + " (" + r.score() + "%)\n");
+            }
+        }
+        out.print("\n");
+    }
+
+    /** Helper for log and global-log - returns the files COMMIT renamed or
+     * copied, compared with its first parent. A new file can be a copy of
+     * a file the commit deleted or changed, as it was before.
+     * @param commit - a commit that has a parent */
+    private List<Renames.Rename> renames(Commit commit) {
+        String parent = getCommit(commit.getParent()).getTree();
+        Map<String, String> gone = new HashMap<>();
+        Map<String, String> kept = new HashMap<>();
+        Map<String, String> added = new HashMap<>();
+        for (Map.Entry<String, String[]> e
+                 : _trees.changes(parent, commit.getTree()).entrySet()) {
+            String[] blobs = e.getValue();
+            if (blobs[0] == null) {
+                added.put(e.getKey(), blobs[1]);
+            } else if (blobs[1] == null) {
+                gone.put(e.getKey(), blobs[0]);
+            } else {
+                kept.put(e.getKey(), blobs[0]);
+            }
+        }
+        return Renames.find(gone, kept, added, true, _sketches);
+    }
+
+    /** Returns a buffered writer onto _out for log and global-log. By
+     * default that is the standard output file descriptor itself rather
+     * than System.out, so that checkError notices a closed pipe. */
+    private PrintWriter logWriter() {
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                _out), Utils.BUFFER_SIZE));
+    }
+
+    /** The options log and global-log accept. */
+    private static class LogOptions {
+        /** The most commits to print. */
+        private int _count = Integer.MAX_VALUE;
+        /** Commits older than this, in ms, are not printed. */
+        private long _since = Long.MIN_VALUE;
+        /** True if the files each commit renamed are printed. */
+        private boolean _renames;
+
+        /** Reads -n COUNT, --since DATE and --renames out of ARGS, where
+         * DATE is yyyy-MM-dd or yyyy-MM-dd HH:mm:ss in local time.
+         * @param args - the command and its options */
+        LogOptions(String[] args) {
+            for (int i = 1; i < args.length; i += 1) {
+                if (args[i].equals("--renames")) {
+                    _renames = true;
+                    continue;
+                } else if (i + 1 == args.length) {
+                    throw new GitletException("Incorrect operands.");
+                }
+                String value = args[i + 1];
+                if (args[i].equals("-n")) {
+                    try {
+                        _count = Integer.parseInt(value);
+                    } catch (NumberFormatException excp) {
+                        throw new GitletException("Incorrect operands.");
+                    }
+                    if (_count < 0) {
+                        throw new GitletException("Incorrect operands.");
+                    }
+                } else if (args[i].equals("--since")) {
+                    _since = parseDate(value);
+                } else {
+                    throw new GitletException("Incorrect operands.");
+                }
+                i += 1;
+            }
+        }
+
+        /** Returns the time in ms of DATE, given as yyyy-MM-dd or
+         * yyyy-MM-dd HH:mm:ss.
+         * @param date - the date */
+        private static long parseDate(String date) {
+            for (String pattern : new String[] {"yyyy-MM-dd HH:mm:ss",
+                                                "yyyy-MM-dd"}) {
+                SimpleDateFormat format = new SimpleDateFormat(pattern);
+                format.setLenient(false);
+                ParsePosition pos = new ParsePosition(0);
+                Date parsed = format.parse(date, pos);
+                if (parsed != null && pos.getIndex() == date.length()) {
+                    return parsed.getTime();
+                }
+            }
+            throw new GitletException("Invalid date: " + date);
+        }
     }
 
     /** Helper method for switching between branches.
@@ -709,18 +1676,237 @@ public class Repo {
         Utils.writeContents(activeBranchFile, newSHA);
     }
 
+    /** Helper for MERGE - moves the current branch from HEAD up to its
+     * descendant OTHER and checks OTHER out.
+     * @param head - the head commit of the current branch
+     * @param other - the commit to move it to */
+    private void fastForward(Commit head, Commit other) {
+        for (String file : workingFiles()) {
+            if (!files(head).containsKey(file)
+                    && files(other).containsKey(file)) {
+                throw new GitletException("There is an untracked file in "
+                        + "the way; delete it, or add and commit it first.");
+            }
+        }
+        materialize(head, other, null);
+        saveIndex();
+        updateActiveBranch(other.getSHA());
+    }
+
+    /** Makes the CWD match commit TO for checkout, reset and merge. If
+     * FROM is given, only the paths that differ between the trees of FROM
+     * and TO are touched, and subtrees the two share are skipped without
+     * being read. Otherwise every file TO tracks is checked, and the files
+     * in STALE that TO doesn't track are deleted. Files that already hold
+     * the right contents, as far as the WorkingIndex can tell, are left
+     * alone; the rest are written out in parallel on Utils.threads()
+     * threads. The whole of it is timed as the "checkout" phase, counting
+     * the files checked and written as FILES_CHECKED and FILES_CHECKED_OUT.
+     * @param from - the commit the CWD was checked out from, or null
+     * @param to - the commit to check out
+     * @param stale - files that should go unless TO tracks them, when FROM
+     *              is null */
+    @SuppressWarnings("try")
+    private void materialize(Commit from, Commit to,
+                             Collection<String> stale) {
+        try (Stats.Phase phase = Stats.phase("checkout")) {
+            Map<String, String> target;
+            try (Stats.Phase diff = Stats.phase("checkout.diff")) {
+                if (from != null) {
+                    target = _trees.diff(from.getTree(), to.getTree());
+                } else {
+                    target = new TreeMap<>(files(to));
+                    for (String filename : stale) {
+                        target.putIfAbsent(filename, null);
+                    }
+                }
+            }
+            int checked = 0;
+            for (String blobSHA : target.values()) {
+                if (blobSHA != null) {
+                    checked += 1;
+                }
+            }
+            Stats.add(Stats.FILES_CHECKED, checked);
+            Stats.add(Stats.FILES_CHECKED_OUT,
+                    updateWorkingFiles(target, "checkout.write"));
+        }
+    }
+
+    /** Makes every path in TARGET hold its blob, and deletes the paths
+     * mapped to null. Deletes go first, so that a file can take the place
+     * of a directory that went away; the files are then written out in
+     * parallel, skipping those that already hold the right contents as far
+     * as the WorkingIndex can tell.
+     * @param target - maps paths to blobs, or to null
+     * @param phase - the name the writes are timed under
+     * @return the number of files written */
+    @SuppressWarnings("try")
+    private int updateWorkingFiles(Map<String, String> target,
+                                   String phase) {
+        List<String> writes = new ArrayList<>();
+        for (Map.Entry<String, String> e : target.entrySet()) {
+            if (e.getValue() == null) {
+                deleteWorkingFile(e.getKey());
+            } else {
+                writes.add(e.getKey());
+            }
+        }
+        WorkingIndex index = getIndex();
+        AtomicInteger written = new AtomicInteger();
+        try (Stats.Phase timed = Stats.phase(phase)) {
+            Utils.forEachParallel(writes, filename -> {
+                File file = Utils.join(_CWD, filename);
+                String blobSHA = target.get(filename);
+                if (!file.isFile()
+                        || !index.blobID(file, filename).equals(blobSHA)) {
+                    _blobStore.copyTo(blobSHA, file);
+                    index.record(file, filename, blobSHA);
+                    written.incrementAndGet();
+                }
+            });
+        }
+        return written.get();
+    }
+
+    /** Returns the files tracked by commit C, mapped to their blobs, in
+     * sorted order of path. Paths are relative to the CWD and use '/'.
+     * @param c - the commit */
+    @SuppressWarnings("try")
+    public Map<String, String> files(Commit c) {
+        return _files.get(c.getTree(), tree -> {
+            try (Stats.Phase phase = Stats.phase("tree.flatten")) {
+                return Collections.unmodifiableMap(_trees.flatten(tree));
+            }
+        });
+    }
+
+    /** Returns the path of every file under the CWD, relative to it and
+     * with '/' separators, in sorted order. The .gitlet directory is
+     * skipped. */
+    @SuppressWarnings("try")
+    public List<String> workingFiles() {
+        Path root = _CWD.toPath();
+        List<String> result = new ArrayList<>();
+        try (Stats.Phase phase = Stats.phase("worktree.scan")) {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir,
+                        BasicFileAttributes attrs) {
+                    return dir.equals(_GITLETREPO.toPath())
+                        ? FileVisitResult.SKIP_SUBTREE
+                        : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file,
+                        BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        result.add(toSlashes(root.relativize(file)));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Returns the path of PATH, which may be relative to the CWD or
+     * absolute, in the form tracked files are stored under: relative to
+     * the CWD, with '/' separators. The CWD itself is "".
+     * @param path - a path given by the user */
+    private String relativePath(String path) {
+        Path root = _CWD.toPath().toAbsolutePath().normalize();
+        Path target = root.resolve(path).normalize();
+        if (!target.startsWith(root)
+                || target.startsWith(_GITLETREPO.toPath()
+                    .toAbsolutePath().normalize())) {
+            throw new GitletException("Path is outside the repository.");
+        }
+        return toSlashes(root.relativize(target));
+    }
+
+    /** Returns relative PATH with its names joined by '/'.
+     * @param path - a relative path */
+    private static String toSlashes(Path path) {
+        StringBuilder result = new StringBuilder();
+        for (Path name : path) {
+            if (result.length() > 0) {
+                result.append('/');
+            }
+            result.append(name);
+        }
+        return result.toString();
+    }
+
+    /** Deletes the file at PATH in the CWD, along with any directories
+     * that are left empty.
+     * @param path - the file's path, relative to the CWD */
+    private void deleteWorkingFile(String path) {
+        Utils.join(_CWD, path).delete();
+        for (int slash = path.lastIndexOf('/'); slash > 0;
+             slash = path.lastIndexOf('/')) {
+            path = path.substring(0, slash);
+            if (!Utils.join(_CWD, path).delete()) {
+                break;
+            }
+        }
+    }
+
+    /** Helper for checkout and merge - throws if writing a file at PATH
+     * would lose a file that TRACKED doesn't have: PATH itself, or any file
+     * under it if it is a directory.
+     * @param path - the file's path, relative to the CWD
+     * @param tracked - the files tracked by the head commit */
+    private void checkUntracked(String path, Map<String, String> tracked) {
+        File file = Utils.join(_CWD, path);
+        boolean inTheWay = file.isFile() && !tracked.containsKey(path);
+        if (file.isDirectory()) {
+            for (String other : workingFiles()) {
+                if (other.startsWith(path + "/")
+                        && !tracked.containsKey(other)) {
+                    inTheWay = true;
+                }
+            }
+        }
+        if (inTheWay) {
+            throw new GitletException("There is an untracked file in "
+                    + "the way; delete it, or add and commit it first.");
+        }
+    }
+
     /** Helper method for writing the contents of a Blob to a specified file.
+     * If a directory of tracked files is where the file goes, e.g. because
+     * the file was turned into one since BLOBSOURCE, it is deleted first.
      * @param filename - name of file to overwrite
      * @param blobSource - the blob containing the contents */
     public void blobOverwrite(String filename, Commit blobSource) {
-        String blobSHA = blobSource.getBlobs().get(filename);
-        File blobFilePath = Utils.join(_BLOBS, blobSHA);
-        byte[] writeThis = Utils.readContents(blobFilePath);
+        String blobSHA = files(blobSource).get(filename);
         File overwriteMe = Utils.join(_CWD, filename);
-        Utils.writeContents(overwriteMe, writeThis);
+        if (overwriteMe.isDirectory()) {
+            checkUntracked(filename, files(getHead()));
+            deleteAll(overwriteMe);
+        }
+        _blobStore.copyTo(blobSHA, overwriteMe);
+        getIndex().record(overwriteMe, filename, blobSHA);
     }
 
-    /** Handles abbreviated SHA1 codes.
+    /** Streams the contents of a blob onto the end of OUT.
+     * @param blobSHA - sha1 of the blob to copy
+     * @param out - where its contents go
+     * @throws IOException if OUT can't be written to */
+    private void copyBlob(String blobSHA, OutputStream out)
+            throws IOException {
+        try (InputStream in = _blobStore.open(blobSHA)) {
+            in.transferTo(out);
+        }
+    }
+
+    /** Handles abbreviated SHA1 codes. Looks the prefix up in the indexes
+     * of the commit store rather than loading any commits.
      * @param abbrev - the abbreviated SHA-1 code
      * @return the full length sha1 */
     public String abbrevSHASearch(String abbrev) {
@@ -728,13 +1914,15 @@ public class Repo {
         if (abbrev.length() == len) {
             return abbrev;
         }
-        _commits = getCommits();
-        for (String key : _commits.keySet()) {
-            if (key.startsWith(abbrev)) {
-                return key;
-            }
+        List<String> matches = _commitStore.findByPrefix(abbrev, 2);
+        if (matches.isEmpty()) {
+            throw new GitletException("No commit with that id exists.");
+        }
+        if (matches.size() > 1) {
+            throw new GitletException("Commit id " + abbrev
+                    + " is ambiguous; use more of it.");
         }
-        throw new GitletException("No commit with that id exists.");
+        return matches.get(0);
     }
 
     /** Getter method for the Repo itself.
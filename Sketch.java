@@ -0,0 +1,180 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** A MinHash sketch of the contents of a blob: a few hundred bytes from
+ * which how alike two files are can be estimated without reading either of
+ * them again, so that renames and copies can be found among thousands of
+ * files.
+ *
+ * The contents are cut into chunks, one per line, with lines longer than
+ * MAX_CHUNK bytes cut every MAX_CHUNK bytes so that binary files have
+ * chunks too. Each chunk is hashed together with how many times the same
+ * chunk came before it, which makes a file a set of distinct chunks even
+ * when lines repeat. For each of SIZE hash functions the sketch keeps the
+ * least hash any chunk got; the share of those two sketches agree on is an
+ * estimate of the Jaccard similarity of the two files' chunks, off by
+ * about 1/sqrt(SIZE) at worst.
+ * @author SEANJHANNON */
+class Sketch {
+
+    /** Number of hash functions, and so of values in a sketch. */
+    static final int SIZE = 64;
+    /** Longest chunk, in bytes. */
+    private static final int MAX_CHUNK = 64;
+    /** Values of a sketch hashed together into each band; see band. */
+    static final int ROWS = 3;
+    /** Number of bands in a sketch. */
+    static final int BANDS = SIZE / ROWS;
+    /** Bytes a sketch takes when stored; see toBytes. */
+    static final int BYTES = Integer.BYTES * (SIZE + 1);
+    /** Offset basis of the 64-bit FNV-1a hash chunks are hashed with. */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    /** Prime of the 64-bit FNV-1a hash. */
+    private static final long FNV_PRIME = 0x100000001b3L;
+    /** Seeds of the hash functions. These are part of the format sketches
+     * are stored in, so changing them means bumping SketchIndex.FORMAT. */
+    private static final long[] SEEDS = new long[SIZE];
+
+    static {
+        for (int i = 0; i < SIZE; i += 1) {
+            SEEDS[i] = mix(0x9e3779b97f4a7c15L * (i + 1));
+        }
+    }
+
+    /** The number of chunks in the file. */
+    private final int _chunks;
+    /** For each hash function, the least hash of any chunk. */
+    private final int[] _mins;
+
+    /** A sketch of a file with CHUNKS chunks whose least hashes are MINS.
+     * @param chunks - the number of chunks
+     * @param mins - the least hash of each function */
+    private Sketch(int chunks, int[] mins) {
+        _chunks = chunks;
+        _mins = mins;
+    }
+
+    /** Returns the sketch of the contents read from IN, which is closed
+     * afterwards.
+     * @param in - the contents */
+    static Sketch of(InputStream in) {
+        int[] mins = new int[SIZE];
+        Arrays.fill(mins, Integer.MAX_VALUE);
+        HashMap<Long, Integer> seen = new HashMap<>();
+        byte[] buffer = new byte[Utils.BUFFER_SIZE];
+        long hash = FNV_OFFSET;
+        int length = 0;
+        try (in) {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                for (int i = 0; i < n; i += 1) {
+                    hash = (hash ^ (buffer[i] & 0xff)) * FNV_PRIME;
+                    length += 1;
+                    if (buffer[i] == '\n' || length == MAX_CHUNK) {
+                        add(mins, seen, hash);
+                        hash = FNV_OFFSET;
+                        length = 0;
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (length > 0) {
+            add(mins, seen, hash);
+        }
+        int chunks = 0;
+        for (int count : seen.values()) {
+            chunks += count;
+        }
+        return new Sketch(chunks, mins);
+    }
+
+    /** Adds the chunk that hashed to HASH to MINS, counting it in SEEN.
+     * @param mins - the least hashes so far
+     * @param seen - how many times each chunk has come up so far
+     * @param hash - the chunk's hash */
+    private static void add(int[] mins, HashMap<Long, Integer> seen,
+                            long hash) {
+        int before = seen.merge(hash, 1, Integer::sum) - 1;
+        long chunk = mix(hash + before * 0x9e3779b97f4a7c15L);
+        for (int i = 0; i < SIZE; i += 1) {
+            int h = (int) (mix(chunk ^ SEEDS[i]) >>> Integer.SIZE);
+            if (h < mins[i]) {
+                mins[i] = h;
+            }
+        }
+    }
+
+    /** Returns X with its bits mixed, as the last step of SplitMix64.
+     * @param x - the value */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+
+    /** Returns true if the file had no contents. */
+    boolean isEmpty() {
+        return _chunks == 0;
+    }
+
+    /** Returns how alike this file and OTHER are, from 0 to 100: the
+     * share of their sketches that agree, but never more than the smaller
+     * file's number of chunks makes possible.
+     * @param other - the other sketch */
+    int similarity(Sketch other) {
+        if (isEmpty() || other.isEmpty()) {
+            return 0;
+        }
+        int same = 0;
+        for (int i = 0; i < SIZE; i += 1) {
+            if (_mins[i] == other._mins[i]) {
+                same += 1;
+            }
+        }
+        long small = Math.min(_chunks, other._chunks);
+        long big = Math.max(_chunks, other._chunks);
+        return (int) Math.min(same * 100L / SIZE, small * 100 / big);
+    }
+
+    /** Returns the hash of band B, the ROWS values of the sketch starting
+     * at B * ROWS, and B itself. Files at least as alike as the threshold
+     * renames are looked for at almost always share a band, and unrelated
+     * files hardly ever do, so only files sharing one need comparing.
+     * @param b - the band, from 0 to BANDS - 1 */
+    long band(int b) {
+        long result = b;
+        for (int i = b * ROWS; i < (b + 1) * ROWS; i += 1) {
+            result = mix(result * 31 + _mins[i]);
+        }
+        return result;
+    }
+
+    /** Returns the sketch as it is stored: the number of chunks followed by
+     * the SIZE least hashes, each a big-endian int. */
+    byte[] toBytes() {
+        ByteBuffer out = ByteBuffer.allocate(BYTES);
+        out.putInt(_chunks);
+        for (int h : _mins) {
+            out.putInt(h);
+        }
+        return out.array();
+    }
+
+    /** Reads back a sketch stored by toBytes from the next BYTES bytes of
+     * IN.
+     * @param in - the stored sketch */
+    static Sketch parse(ByteBuffer in) {
+        int chunks = in.getInt();
+        int[] mins = new int[SIZE];
+        for (int i = 0; i < SIZE; i += 1) {
+            mins[i] = in.getInt();
+        }
+        return new Sketch(chunks, mins);
+    }
+}
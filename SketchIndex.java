@@ -0,0 +1,145 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Keeps the Sketch of every blob that has needed one, so that each blob
+ * is only ever read once to find renames, however many times it is looked
+ * at afterwards. Blobs never change, so neither do their sketches, and the
+ * index only ever grows.
+ *
+ * The file starts with FORMAT as a big-endian int, followed by one
+ * RECORD-byte record per blob: its raw SHA-1 and its sketch. New sketches
+ * are appended to it. A file in any other form, or one ending in a record
+ * cut short by a crash, is only a cache, so it is written out afresh the
+ * next time sketches are added.
+ * @author SEANJHANNON */
+class SketchIndex {
+
+    /** Version of the layout of the file, and of how sketches are
+     * computed. */
+    static final int FORMAT = 1;
+    /** Number of bytes in a raw SHA-1. */
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+    /** Bytes in each record. */
+    private static final int RECORD = ID_BYTES + Sketch.BYTES;
+
+    /** The file the index is kept in. */
+    private final File _file;
+    /** Where the blobs are stored. */
+    private final ObjectStore _blobs;
+    /** The sketches in _file, by blob, or null until it is read. */
+    private HashMap<String, Sketch> _sketches;
+    /** True if _file has to be written out whole rather than appended
+     * to. */
+    private boolean _rewrite;
+
+    /** Opens the index kept in FILE, which need not exist yet, of the
+     * blobs in BLOBS.
+     * @param file - the file
+     * @param blobs - where the blobs are stored */
+    SketchIndex(File file, ObjectStore blobs) {
+        _file = file;
+        _blobs = blobs;
+    }
+
+    /** Returns the sketch of every blob in IDS, reading those not in the
+     * index yet, in parallel, and adding them to it.
+     * @param ids - the blobs */
+    Map<String, Sketch> get(Collection<String> ids) {
+        if (_sketches == null) {
+            read();
+        }
+        Set<String> missing = new TreeSet<>();
+        for (String id : ids) {
+            if (!_sketches.containsKey(id)) {
+                missing.add(id);
+            }
+        }
+        Map<String, Sketch> added = new ConcurrentHashMap<>();
+        Utils.forEachParallel(missing,
+            id -> added.put(id, Sketch.of(_blobs.open(id))));
+        if (!added.isEmpty()) {
+            _sketches.putAll(added);
+            write(added);
+        }
+        HashMap<String, Sketch> result = new HashMap<>();
+        for (String id : ids) {
+            result.put(id, _sketches.get(id));
+        }
+        return result;
+    }
+
+    /** Forgets what was read from _file, in case another process has
+     * added to it since. */
+    void refresh() {
+        _sketches = null;
+    }
+
+    /** Reads _file into _sketches. */
+    private void read() {
+        _sketches = new HashMap<>();
+        _rewrite = true;
+        if (!_file.isFile()) {
+            return;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Utils.readContents(_file));
+        if (in.remaining() < Integer.BYTES || in.getInt() != FORMAT) {
+            return;
+        }
+        byte[] id = new byte[ID_BYTES];
+        while (in.remaining() >= RECORD) {
+            in.get(id);
+            _sketches.put(Utils.toHex(id), Sketch.parse(in));
+        }
+        _rewrite = in.hasRemaining();
+    }
+
+    /** Adds the sketches in ADDED to _file, or writes out every sketch if
+     * it has to be rewritten. A rewrite goes to a file next to _file
+     * first and is renamed into place.
+     * @param added - the new sketches, by blob */
+    private void write(Map<String, Sketch> added) {
+        Map<String, Sketch> records = _rewrite ? _sketches : added;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+            Integer.BYTES + records.size() * RECORD);
+        if (_rewrite) {
+            bytes.writeBytes(ByteBuffer.allocate(Integer.BYTES)
+                    .putInt(FORMAT).array());
+        }
+        for (Map.Entry<String, Sketch> e : records.entrySet()) {
+            bytes.writeBytes(IdIndex.toBytes(e.getKey()));
+            bytes.writeBytes(e.getValue().toBytes());
+        }
+        try {
+            if (_rewrite) {
+                Path tmp = ObjectStore.tempFile(_file.getParentFile(), "");
+                Files.write(tmp, bytes.toByteArray());
+                Files.move(tmp, _file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                try (FileOutputStream out =
+                         new FileOutputStream(_file, true)) {
+                    bytes.writeTo(out);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Stats.add(Stats.BYTES_WRITTEN, bytes.size());
+        _rewrite = false;
+    }
+}
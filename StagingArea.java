@@ -1,55 +1,327 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 /** Staging area object for storing all files staged for addition or removal.
+ *
+ * On disk it is kept as a snapshot plus a journal. Saving appends one batch
+ * to the journal giving the new state of every file changed since the last
+ * save, so staging a file costs the same however many others are staged.
+ * Once the journal holds more entries than the staging area itself, the
+ * whole thing is written out as a new snapshot and the journal is deleted,
+ * which keeps the cost of each entry constant on average. Each snapshot
+ * has a number one higher than the last, and each batch the number of the
+ * snapshot it goes on top of, so batches left behind by a crash halfway
+ * through compacting are skipped.
  * @author SEANJHANNON */
 public class StagingArea implements Serializable {
+    /** Pinned so staging areas written with Java serialization by older
+     * versions of gitlet can still be read after this class changes. */
+    private static final long serialVersionUID = 1180761098901559243L;
+    /** The fields as older versions wrote them with Java serialization. */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("_add", HashMap.class),
+        new ObjectStreamField("_remove", ArrayList.class),
+    };
+
+    /** Version of the layout the staging area is stored in; see toBytes. */
+    static final int FORMAT = 2;
+    /** Version of the layout of each batch in the journal; see append. */
+    static final int JOURNAL_FORMAT = 1;
+    /** The journal is never compacted while it holds fewer entries than
+     * this. */
+    private static final int COMPACT_MIN = 256;
+
     /** ADD is a hashmap mapping filenames of staged files to sha1s of blobs. */
     private HashMap<String, String> _add;
-    /** REMOVE is an ArrayList of Strings storing files staged for removal. */
-    private ArrayList<String> _remove;
+    /** REMOVE is the set of files staged for removal, in the order they were
+     * staged. */
+    private LinkedHashSet<String> _remove;
+    /** Files whose state changed since the staging area was last saved. */
+    private transient LinkedHashSet<String> _changed;
+    /** True if the whole staging area has to be written out as a snapshot
+     * the next time it is saved. */
+    private transient boolean _rewrite;
+    /** The number of the snapshot the journal goes on top of. */
+    private transient long _epoch;
+    /** Entries in the journal on disk. */
+    private transient long _journaled;
 
     /** The constructor - initializes data structures for staged files. */
     public StagingArea() {
         _add = new HashMap<>();
-        _remove = new ArrayList<>();
+        _remove = new LinkedHashSet<>();
+        _changed = new LinkedHashSet<>();
+        _rewrite = true;
     }
 
     /** CLEAR method - removes everything currently in the staging area. */
     public void clear() {
-        _add = new HashMap<>();
-        _remove = new ArrayList<>();
+        if (isEmpty()) {
+            return;
+        }
+        _add.clear();
+        _remove.clear();
+        _changed.clear();
+        _rewrite = true;
     }
 
     /** ADD method - stages a file for addition.
      * @param filename - name of file to stage
      * @param sha1 - sha1 of the blob holding the file's contents */
     public void add(String filename, String sha1) {
-        _add.put(filename, sha1);
+        if (!sha1.equals(_add.put(filename, sha1))) {
+            _changed.add(filename);
+        }
     }
 
     /** REMOVE method - stages a file for removal.
      * @param filename - name of file to stage for removal */
     public void remove(String filename) {
-        _remove.add(filename);
+        if (_remove.add(filename)) {
+            _changed.add(filename);
+        }
+    }
+
+    /** Unstages file that is staged for addition.
+     * @param filename - name of the file to unstage */
+    public void unstage(String filename) {
+        if (_add.remove(filename) != null) {
+            _changed.add(filename);
+        }
+    }
+
+    /** Unstages file that is staged for removal.
+     * @param filename - name of the file to unstage */
+    public void unremove(String filename) {
+        if (_remove.remove(filename)) {
+            _changed.add(filename);
+        }
+    }
+
+    /** Returns true if nothing is staged. */
+    public boolean isEmpty() {
+        return _add.isEmpty() && _remove.isEmpty();
     }
 
     /** Getter method that returns all files staged for addition. */
-    public HashMap<String, String> getAdd() {
-        return _add;
+    public Map<String, String> getAdd() {
+        return Collections.unmodifiableMap(_add);
     }
 
     /** Getter method that returns all files staged for removal. */
-    public ArrayList<String> getRemove() {
-        return _remove;
+    public Set<String> getRemove() {
+        return Collections.unmodifiableSet(_remove);
     }
 
-    /** Unstages file that is staged for addition.
-     * @param filename - name of the file to unstage */
-    public void unstage(String filename) {
-        _add.remove(filename);
+    /** Returns the staging area as it is stored: a Codec record holding the
+     * number of files staged for addition, each one's name and blob, then
+     * the number of files staged for removal and their names, then the
+     * number of the snapshot. */
+    byte[] toBytes() {
+        Codec.Writer out = new Codec.Writer(Codec.STAGE, FORMAT);
+        out.varint(_add.size());
+        for (Map.Entry<String, String> e : _add.entrySet()) {
+            out.string(e.getKey());
+            out.id(e.getValue());
+        }
+        out.varint(_remove.size());
+        for (String filename : _remove) {
+            out.string(filename);
+        }
+        out.varint(_epoch);
+        return out.toByteArray();
+    }
+
+    /** Reads a staging area back from the bytes it was stored as, which may
+     * also be one written with Java serialization by an older version.
+     * @param bytes - what toBytes returned
+     * @return the staging area */
+    static StagingArea parse(byte[] bytes) {
+        if (Codec.isLegacy(bytes)) {
+            return Utils.readObject(new ByteArrayInputStream(bytes),
+                    StagingArea.class);
+        }
+        Stats.add(Stats.OBJECTS_DECODED, 1);
+        Codec.Reader in = new Codec.Reader(bytes, Codec.STAGE, FORMAT);
+        StagingArea result = new StagingArea();
+        for (long n = in.varint(); n > 0; n -= 1) {
+            String filename = in.string();
+            result.add(filename, in.id());
+        }
+        for (long n = in.varint(); n > 0; n -= 1) {
+            result.remove(in.string());
+        }
+        if (in.version() >= 2) {
+            result._epoch = in.varint();
+        }
+        result._changed.clear();
+        result._rewrite = in.version() < FORMAT;
+        return result;
+    }
+
+    /** Reads the staging area kept in snapshot FILE and JOURNAL.
+     * @param file - the snapshot
+     * @param journal - the journal, which need not exist
+     * @return the staging area */
+    static StagingArea load(File file, File journal) {
+        StagingArea result = parse(Utils.readContents(file));
+        if (journal.isFile()) {
+            result.replay(Utils.readContents(journal));
+        }
+        return result;
+    }
+
+    /** Applies every batch in journal DATA that goes on top of this
+     * snapshot. A batch cut short by a crash ends the journal, and the next
+     * save compacts it away.
+     * @param data - the contents of the journal */
+    private void replay(byte[] data) {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        try {
+            while (in.remaining() >= Integer.BYTES) {
+                int length = in.getInt();
+                if (length < 0 || length > in.remaining()) {
+                    break;
+                }
+                byte[] batch = Arrays.copyOfRange(data, in.position(),
+                        in.position() + length);
+                in.position(in.position() + length);
+                Codec.Reader entries = new Codec.Reader(batch, Codec.JOURNAL,
+                        JOURNAL_FORMAT);
+                boolean current = entries.varint() == _epoch;
+                long n = entries.varint();
+                _journaled += n;
+                for (; n > 0 && current; n -= 1) {
+                    String filename = entries.string();
+                    String id = entries.id();
+                    if (id == null) {
+                        _add.remove(filename);
+                    } else {
+                        _add.put(filename, id);
+                    }
+                    if (entries.bool()) {
+                        _remove.add(filename);
+                    } else {
+                        _remove.remove(filename);
+                    }
+                }
+            }
+        } catch (IllegalArgumentException excp) {
+            _rewrite = true;
+        }
+        if (in.hasRemaining()) {
+            _rewrite = true;
+        }
+    }
+
+    /** Saves every change made since the last save, either by appending it
+     * to JOURNAL or by compacting everything into a new snapshot in FILE.
+     * Does nothing if nothing changed.
+     * @param file - the snapshot
+     * @param journal - the journal */
+    void save(File file, File journal) {
+        if (!_rewrite && _changed.isEmpty()) {
+            return;
+        }
+        if (_rewrite || _journaled + _changed.size()
+                > Math.max(COMPACT_MIN, _add.size() + _remove.size())) {
+            compact(file);
+            journal.delete();
+            _journaled = 0;
+        } else {
+            append(journal);
+            _journaled += _changed.size();
+        }
+        _changed.clear();
+        _rewrite = false;
+    }
+
+    /** Writes the whole staging area to FILE as the next snapshot. It is
+     * written next to FILE first and renamed into place.
+     * @param file - the snapshot */
+    private void compact(File file) {
+        _epoch += 1;
+        byte[] bytes = toBytes();
+        try {
+            Path tmp = ObjectStore.tempFile(file.getParentFile(), "");
+            Files.write(tmp, bytes);
+            Files.move(tmp, file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Stats.add(Stats.BYTES_WRITTEN, bytes.length);
+    }
+
+    /** Appends a batch to JOURNAL holding the new state of every changed
+     * file: its name, the blob it is staged for addition with or null, and
+     * whether it is staged for removal. The batch is a Codec record that
+     * starts with the number of the snapshot and the number of entries, and
+     * is written after its length in a single write.
+     * @param journal - the journal */
+    private void append(File journal) {
+        Codec.Writer batch = new Codec.Writer(Codec.JOURNAL, JOURNAL_FORMAT);
+        batch.varint(_epoch);
+        batch.varint(_changed.size());
+        for (String filename : _changed) {
+            batch.string(filename);
+            batch.id(_add.get(filename));
+            batch.bool(_remove.contains(filename));
+        }
+        byte[] record = batch.toByteArray();
+        byte[] frame = ByteBuffer.allocate(Integer.BYTES + record.length)
+            .putInt(record.length).put(record).array();
+        try (FileOutputStream out = new FileOutputStream(journal, true)) {
+            out.write(frame);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Stats.add(Stats.BYTES_WRITTEN, frame.length);
+    }
+
+    /** Reads a staging area written with Java serialization, where the
+     * files staged for removal were a list.
+     * @param in - the stream
+     * @throws IOException if it can't be read
+     * @throws ClassNotFoundException if it holds an unknown class */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        _add = (HashMap<String, String>) fields.get("_add", null);
+        _remove = new LinkedHashSet<>(
+            (ArrayList<String>) fields.get("_remove", null));
+        _changed = new LinkedHashSet<>();
+        _rewrite = true;
+    }
+
+    /** Writes the staging area with Java serialization in the form older
+     * versions read.
+     * @param out - the stream
+     * @throws IOException if it can't be written */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("_add", _add);
+        fields.put("_remove", new ArrayList<>(_remove));
+        out.writeFields();
     }
 }
@@ -0,0 +1,257 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counts what a gitlet command does and times its phases, so that a slow
+ * command can be pulled apart without a profiler. Turned on by giving
+ * --stats or --trace FILE before the command:
+ *      java gitlet.Main --stats merge other
+ *      java gitlet.Main --trace merge.json merge other
+ * The first prints a summary on stderr when the command is done; the second
+ * writes every phase out in the Chrome trace event format, which
+ * chrome://tracing and Perfetto can show as a timeline, with the counters
+ * under "otherData". Among the counters are the hits and misses of the
+ * caches in Repo; see ObjectCache.
+ *
+ * Counters are kept per name, e.g. BYTES_READ, and can be bumped from any
+ * thread. A phase is timed by opening it in a try-with-resources block.
+ * The block never uses the phase itself, so the method holding it is
+ * marked {@code @SuppressWarnings("try")} to keep -Xlint quiet.
+ * While stats are off every call here returns at once, so the
+ * instrumentation can stay in the code for good.
+ * @author SEANJHANNON */
+class Stats {
+
+    /** Bytes read from files in .gitlet and the CWD, counting objects as
+     * their contents after inflating. */
+    static final String BYTES_READ = "bytes.read";
+    /** Bytes written to files in .gitlet and the CWD, counting objects as
+     * the bytes they take up on disk. */
+    static final String BYTES_WRITTEN = "bytes.written";
+    /** Commits, trees, staging areas and indexes read back from disk. */
+    static final String OBJECTS_DECODED = "objects.decoded";
+    /** Files in the CWD whose stats were read. */
+    static final String FILES_STATTED = "files.statted";
+    /** Files a checkout, reset or merge made sure the CWD holds. */
+    static final String FILES_CHECKED = "checkout.checked";
+    /** Of those, the files that had to be written out. */
+    static final String FILES_CHECKED_OUT = "checkout.written";
+    /** Bytes fed through SHA-1. */
+    static final String HASH_BYTES = "hash.bytes";
+    /** Time spent in SHA-1, in ns, summed over threads. */
+    static final String HASH_NANOS = "hash.ns";
+
+    /** True while stats are being kept. */
+    private static boolean _enabled;
+    /** The command being measured. */
+    private static String _command;
+    /** When the command started, by System.nanoTime. */
+    private static long _start;
+    /** When the command finished, by System.nanoTime. */
+    private static long _end;
+    /** Every counter, by name. */
+    private static final Map<String, LongAdder> COUNTERS =
+        new ConcurrentHashMap<>();
+    /** Every phase that has finished, in the order they finished. */
+    private static final List<Phase> PHASES = new ArrayList<>();
+    /** Where to print the summary, or null for none. */
+    private static PrintStream _report;
+    /** Where to write the trace, or null for none. */
+    private static File _trace;
+    /** Returned by phase while stats are off. */
+    private static final Phase NOTHING = new Phase(null);
+
+    /** Takes the --stats and --trace FILE options off the front of ARGS,
+     * turning stats on if there were any. Anything kept for an earlier
+     * command is thrown away.
+     * @param args - the command line
+     * @return the rest of ARGS, starting with the command */
+    static String[] parseOptions(String... args) {
+        _enabled = false;
+        _report = null;
+        _trace = null;
+        COUNTERS.clear();
+        synchronized (PHASES) {
+            PHASES.clear();
+        }
+        int i = 0;
+        while (i < args.length) {
+            if (args[i].equals("--stats")) {
+                _report = System.err;
+                i += 1;
+            } else if (args[i].equals("--trace") && i + 1 < args.length) {
+                _trace = new File(args[i + 1]);
+                i += 2;
+            } else {
+                break;
+            }
+        }
+        String[] rest = new String[args.length - i];
+        System.arraycopy(args, i, rest, 0, rest.length);
+        if (_report != null || _trace != null) {
+            _enabled = true;
+            _command = rest.length > 0 ? rest[0] : "";
+            _start = System.nanoTime();
+        }
+        return rest;
+    }
+
+    /** Returns true if stats are being kept. */
+    static boolean enabled() {
+        return _enabled;
+    }
+
+    /** Adds N to counter NAME.
+     * @param name - the counter
+     * @param n - the amount */
+    static void add(String name, long n) {
+        if (_enabled) {
+            COUNTERS.computeIfAbsent(name, k -> new LongAdder()).add(n);
+        }
+    }
+
+    /** Starts timing a phase called NAME, which ends when the result is
+     * closed.
+     * @param name - the phase, e.g. "merge.base" */
+    static Phase phase(String name) {
+        return _enabled ? new Phase(name) : NOTHING;
+    }
+
+    /** Returns IN, counting the bytes read through it as BYTES_READ while
+     * stats are on.
+     * @param in - a stream over a file */
+    static InputStream counting(InputStream in) {
+        if (!_enabled) {
+            return in;
+        }
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    add(BYTES_READ, 1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buf, int off, int len) throws IOException {
+                int n = super.read(buf, off, len);
+                if (n > 0) {
+                    add(BYTES_READ, n);
+                }
+                return n;
+            }
+        };
+    }
+
+    /** Ends the command, printing the summary and writing the trace as
+     * asked. Does nothing if stats are off. */
+    static void finish() {
+        if (!_enabled) {
+            return;
+        }
+        _end = System.nanoTime();
+        _enabled = false;
+        if (_report != null) {
+            report(_report);
+        }
+        if (_trace != null) {
+            Utils.writeContents(_trace, traceJSON());
+        }
+    }
+
+    /** Prints the time taken, the total time spent in each phase and every
+     * counter on OUT.
+     * @param out - where the summary goes */
+    private static void report(PrintStream out) {
+        out.printf("=== Stats: %s ===%n", _command);
+        out.printf("%-24s %12.3f ms%n", "wall", (_end - _start) / 1e6);
+        TreeMap<String, long[]> totals = new TreeMap<>();
+        synchronized (PHASES) {
+            for (Phase p : PHASES) {
+                long[] total = totals.computeIfAbsent(p._name,
+                    k -> new long[2]);
+                total[0] += p._end - p._start;
+                total[1] += 1;
+            }
+        }
+        for (Map.Entry<String, long[]> e : totals.entrySet()) {
+            out.printf("%-24s %12.3f ms  x%d%n", e.getKey(),
+                    e.getValue()[0] / 1e6, e.getValue()[1]);
+        }
+        for (Map.Entry<String, LongAdder> e
+                 : new TreeMap<>(COUNTERS).entrySet()) {
+            out.printf("%-24s %12d%n", e.getKey(), e.getValue().sum());
+        }
+    }
+
+    /** Returns the phases and counters as a Chrome trace. */
+    private static String traceJSON() {
+        StringBuilder json = new StringBuilder("{\"traceEvents\": [\n");
+        long pid = ProcessHandle.current().pid();
+        json.append(String.format("  {\"name\": %s, \"ph\": \"X\", "
+                + "\"ts\": 0.000, \"dur\": %.3f, \"pid\": %d, \"tid\": %d}",
+                Utils.quoteJSON(_command), (_end - _start) / 1e3, pid,
+                Thread.currentThread().getId()));
+        synchronized (PHASES) {
+            for (Phase p : PHASES) {
+                json.append(String.format(",%n  {\"name\": %s, \"ph\": "
+                        + "\"X\", \"ts\": %.3f, \"dur\": %.3f, \"pid\": %d, "
+                        + "\"tid\": %d}", Utils.quoteJSON(p._name),
+                        (p._start - _start) / 1e3, (p._end - p._start) / 1e3,
+                        pid, p._thread));
+            }
+        }
+        json.append("\n], \"displayTimeUnit\": \"ms\", \"otherData\": {");
+        json.append("\"command\": ").append(Utils.quoteJSON(_command));
+        for (Map.Entry<String, LongAdder> e
+                 : new TreeMap<>(COUNTERS).entrySet()) {
+            json.append(", ").append(Utils.quoteJSON(e.getKey())).append(": ")
+                .append(e.getValue().sum());
+        }
+        return json.append("}}\n").toString();
+    }
+
+    /** One timed phase of a command. */
+    static class Phase implements AutoCloseable {
+        /** The name of the phase, or null for one that isn't timed. */
+        private final String _name;
+        /** The thread it ran on. */
+        private final long _thread;
+        /** When it started, by System.nanoTime. */
+        private final long _start;
+        /** When it ended, by System.nanoTime. */
+        private long _end;
+
+        /** Starts phase NAME.
+         * @param name - the phase, or null for none */
+        Phase(String name) {
+            _name = name;
+            _thread = Thread.currentThread().getId();
+            _start = name == null ? 0 : System.nanoTime();
+        }
+
+        /** Ends the phase. */
+        @Override
+        public void close() {
+            if (_name == null) {
+                return;
+            }
+            _end = System.nanoTime();
+            synchronized (PHASES) {
+                PHASES.add(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/** The TREE class - a snapshot of one directory. Maps the name of each file
+ * in it to the SHA-1 of its blob and the name of each subdirectory to the
+ * SHA-1 of another TREE. Like blobs, trees are stored under the SHA-1 of
+ * their contents, so a directory that didn't change between two commits is
+ * the very same tree in both.
+ *
+ * A tree is stored as its entries in sorted order, each one a type byte
+ * (BLOB or TREE), the name in UTF-8, a zero byte and the 20 bytes of the
+ * SHA-1 it points to.
+ * @author SEANJHANNON */
+class Tree {
+
+    /** Hashed in front of a tree's contents. */
+    static final String ID_PREFIX = "tree 1\0";
+    /** Type byte of entries that are files. */
+    static final byte BLOB = 'b';
+    /** Type byte of entries that are subdirectories. */
+    static final byte TREE = 't';
+    /** The tree of an empty directory. */
+    static final Tree EMPTY = new Tree(new TreeMap<>());
+
+    /** The entries, by name. */
+    private final TreeMap<String, Entry> _entries;
+    /** The tree's contents as stored. */
+    private final byte[] _bytes;
+    /** The SHA-1 of the tree. */
+    private final String _id;
+
+    /** Creates a tree with ENTRIES.
+     * @param entries - what is in the directory, by name */
+    Tree(SortedMap<String, Entry> entries) {
+        _entries = new TreeMap<>(entries);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+            out.write(e.getValue().isTree() ? TREE : BLOB);
+            out.writeBytes(e.getKey().getBytes(StandardCharsets.UTF_8));
+            out.write(0);
+            out.writeBytes(IdIndex.toBytes(e.getValue().id()));
+        }
+        _bytes = out.toByteArray();
+        _id = Utils.sha1(ID_PREFIX, _bytes);
+    }
+
+    /** Reads a tree back from the bytes it was stored as.
+     * @param bytes - what toBytes returned
+     * @return the tree */
+    static Tree parse(byte[] bytes) {
+        Stats.add(Stats.OBJECTS_DECODED, 1);
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        byte[] raw = new byte[Utils.UID_LENGTH / 2];
+        while (in.hasRemaining()) {
+            byte type = in.get();
+            int start = in.position();
+            while (in.get() != 0) {
+                continue;
+            }
+            String name = new String(bytes, start, in.position() - start - 1,
+                    StandardCharsets.UTF_8);
+            in.get(raw);
+            entries.put(name, new Entry(type == TREE, Utils.toHex(raw)));
+        }
+        return new Tree(entries);
+    }
+
+    /** Returns the SHA-1 of this tree. */
+    String id() {
+        return _id;
+    }
+
+    /** Returns the contents of this tree as it is stored. */
+    byte[] toBytes() {
+        return _bytes.clone();
+    }
+
+    /** Returns the entries of this tree, by name, in sorted order. */
+    SortedMap<String, Entry> entries() {
+        return Collections.unmodifiableSortedMap(_entries);
+    }
+
+    /** One entry of a tree: a file or a subdirectory. */
+    static class Entry {
+        /** True if this is a subdirectory. */
+        private final boolean _tree;
+        /** The SHA-1 of the blob or tree. */
+        private final String _id;
+
+        /** Creates an entry.
+         * @param tree - true for a subdirectory, false for a file
+         * @param id - the SHA-1 of its tree or blob */
+        Entry(boolean tree, String id) {
+            _tree = tree;
+            _id = id;
+        }
+
+        /** Returns true if this is a subdirectory. */
+        boolean isTree() {
+            return _tree;
+        }
+
+        /** Returns the SHA-1 of the blob or tree. */
+        String id() {
+            return _id;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Stores the Trees of a repo and answers questions about whole directory
+ * hierarchies. Paths are relative to the root of the CWD and use '/' as the
+ * separator on every platform. Subtrees that are the same in two trees are
+ * never looked into, so comparing or updating trees only costs as much as
+ * the directories that actually differ.
+ * @author SEANJHANNON */
+class TreeStore {
+
+    /** The most trees kept in memory at once. */
+    private static final int CACHE_SIZE = 4096;
+
+    /** Where the trees are kept. */
+    private final ObjectStore _store;
+    /** Trees already read in, by id. */
+    private final ObjectCache<String, Tree> _cache =
+        new ObjectCache<>("cache.trees", CACHE_SIZE);
+
+    /** Opens the trees kept in DIR.
+     * @param dir - the directory */
+    TreeStore(File dir) {
+        _store = new ObjectStore(dir, true);
+    }
+
+    /** Returns the ObjectStore the trees are kept in. */
+    ObjectStore store() {
+        return _store;
+    }
+
+    /** Returns tree ID.
+     * @param id - the sha1 */
+    Tree get(String id) {
+        return _cache.get(id, key -> {
+            try (InputStream in = _store.open(key)) {
+                return Tree.parse(in.readAllBytes());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        });
+    }
+
+    /** Stores TREE unless it is already stored.
+     * @param tree - the tree
+     * @return its id */
+    String put(Tree tree) {
+        _store.put(tree.id(), tree.toBytes());
+        _cache.put(tree.id(), tree);
+        return tree.id();
+    }
+
+    /** Returns every file under tree ROOT, mapped to its blob, in sorted
+     * order of path.
+     * @param root - sha1 of the tree */
+    TreeMap<String, String> flatten(String root) {
+        TreeMap<String, String> result = new TreeMap<>();
+        ArrayDeque<String[]> todo = new ArrayDeque<>();
+        todo.push(new String[] {"", root});
+        while (!todo.isEmpty()) {
+            String[] next = todo.pop();
+            for (Map.Entry<String, Tree.Entry> e
+                     : get(next[1]).entries().entrySet()) {
+                String path = next[0] + e.getKey();
+                if (e.getValue().isTree()) {
+                    todo.push(new String[] {path + "/", e.getValue().id()});
+                } else {
+                    result.put(path, e.getValue().id());
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the id of the tree you get by applying CHANGES to tree
+     * ROOT. Only the trees of directories with a change in them are
+     * rebuilt and stored; everything else is shared with ROOT.
+     * Directories left empty disappear.
+     * @param root - sha1 of the tree to start from
+     * @param changes - maps paths to their new blob, or to null for paths
+     *                that should be removed
+     * @return the sha1 of the new tree */
+    String update(String root, Map<String, String> changes) {
+        if (changes.isEmpty()) {
+            return root;
+        }
+        TreeMap<String, Tree.Entry> entries = root == null
+            ? new TreeMap<>() : new TreeMap<>(get(root).entries());
+        TreeMap<String, Map<String, String>> subdirs = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                if (change.getValue() == null) {
+                    Tree.Entry old = entries.get(path);
+                    if (old != null && !old.isTree()) {
+                        entries.remove(path);
+                    }
+                } else {
+                    entries.put(path, new Tree.Entry(false,
+                            change.getValue()));
+                }
+            } else {
+                subdirs.computeIfAbsent(path.substring(0, slash),
+                    k -> new HashMap<>())
+                    .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> sub
+                 : subdirs.entrySet()) {
+            Tree.Entry old = entries.get(sub.getKey());
+            String oldTree = old != null && old.isTree() ? old.id() : null;
+            String subtree = update(oldTree, sub.getValue());
+            if (get(subtree).entries().isEmpty()) {
+                if (oldTree != null) {
+                    entries.remove(sub.getKey());
+                }
+            } else {
+                entries.put(sub.getKey(), new Tree.Entry(true, subtree));
+            }
+        }
+        return put(new Tree(entries));
+    }
+
+    /** Stores the trees of a CWD holding FILES.
+     * @param files - maps paths to blobs
+     * @return the sha1 of the root tree */
+    String build(Map<String, String> files) {
+        return update(put(Tree.EMPTY), files);
+    }
+
+    /** Returns every path whose blob differs between tree FROM and tree
+     * TO, mapped to its blob in TO, or to null if TO doesn't have it.
+     * Subtrees with the same id in both are skipped without being read.
+     * @param from - sha1 of the old tree, or null for none
+     * @param to - sha1 of the new tree
+     * @return the changed paths, in sorted order */
+    TreeMap<String, String> diff(String from, String to) {
+        TreeMap<String, String> result = new TreeMap<>();
+        for (Map.Entry<String, String[]> e : changes(from, to).entrySet()) {
+            result.put(e.getKey(), e.getValue()[1]);
+        }
+        return result;
+    }
+
+    /** Returns every path whose blob differs between tree FROM and tree
+     * TO, mapped to its blob in FROM and its blob in TO, either of which
+     * is null if that tree doesn't have it. Like diff, skips subtrees with
+     * the same id in both.
+     * @param from - sha1 of the old tree, or null for none
+     * @param to - sha1 of the new tree
+     * @return the changed paths, in sorted order */
+    TreeMap<String, String[]> changes(String from, String to) {
+        TreeMap<String, String[]> result = new TreeMap<>();
+        diff(from, to, "", result);
+        return result;
+    }
+
+    /** Returns the blob of the file at PATH in tree ROOT, reading only the
+     * trees of the directories on the way to it.
+     * @param root - sha1 of the tree
+     * @param path - the file's path
+     * @return the sha1 of its blob, or null if ROOT has no file there */
+    String blob(String root, String path) {
+        String tree = root;
+        int start = 0;
+        while (true) {
+            int slash = path.indexOf('/', start);
+            String name = slash < 0 ? path.substring(start)
+                : path.substring(start, slash);
+            Tree.Entry e = get(tree).entries().get(name);
+            if (e == null || e.isTree() != (slash >= 0)) {
+                return null;
+            } else if (slash < 0) {
+                return e.id();
+            }
+            tree = e.id();
+            start = slash + 1;
+        }
+    }
+
+    /** Helper for diff - adds the changes between FROM and TO, which are
+     * the trees of directory PREFIX, to RESULT.
+     * @param from - sha1 of the old tree, or null
+     * @param to - sha1 of the new tree, or null
+     * @param prefix - path of the directory, ending in '/' unless it's the
+     *               root
+     * @param result - collects the changes */
+    private void diff(String from, String to, String prefix,
+                      TreeMap<String, String[]> result) {
+        if (from != null && from.equals(to)) {
+            return;
+        }
+        SortedMap<String, Tree.Entry> old = entries(from);
+        SortedMap<String, Tree.Entry> now = entries(to);
+        TreeSet<String> names = new TreeSet<>(old.keySet());
+        names.addAll(now.keySet());
+        for (String name : names) {
+            Tree.Entry a = old.get(name);
+            Tree.Entry b = now.get(name);
+            String path = prefix + name;
+            String oldTree = a != null && a.isTree() ? a.id() : null;
+            String newTree = b != null && b.isTree() ? b.id() : null;
+            String oldBlob = a != null && !a.isTree() ? a.id() : null;
+            String newBlob = b != null && !b.isTree() ? b.id() : null;
+            if (oldTree != null || newTree != null) {
+                diff(oldTree, newTree, path + "/", result);
+            }
+            if (oldBlob != null || newBlob != null) {
+                if (oldBlob == null || !oldBlob.equals(newBlob)) {
+                    result.put(path, new String[] {oldBlob, newBlob});
+                }
+            }
+        }
+    }
+
+    /** Compares three trees in one pass for a merge of tree THEIRS into
+     * tree OURS, whose common ancestor is tree BASE. Returns every path
+     * whose blob in THEIRS differs both from the one in OURS and from the
+     * one in BASE; those are the only paths a merge has to do anything
+     * about. Each is mapped to its blob in BASE, OURS and THEIRS, in that
+     * order, with null for a tree that doesn't have it. A subtree that is
+     * the same in OURS and THEIRS, or in BASE and THEIRS, is skipped
+     * without being read. A name both sides changed so that it is a file
+     * in one and a directory in the other can't be merged, and is an error
+     * before anything is written.
+     * @param base - sha1 of the ancestor's tree, or null for none
+     * @param ours - sha1 of the tree being merged into
+     * @param theirs - sha1 of the tree being merged in
+     * @return the paths to merge, in sorted order */
+    TreeMap<String, String[]> merge(String base, String ours,
+                                    String theirs) {
+        TreeMap<String, String[]> result = new TreeMap<>();
+        merge(base, ours, theirs, "", result);
+        return result;
+    }
+
+    /** Helper for merge - adds the paths to merge in directory PREFIX,
+     * whose trees are BASE, OURS and THEIRS, to RESULT.
+     * @param base - sha1 of the ancestor's tree, or null
+     * @param ours - sha1 of the tree being merged into, or null
+     * @param theirs - sha1 of the tree being merged in, or null
+     * @param prefix - path of the directory, ending in '/' unless it's the
+     *               root
+     * @param result - collects the paths */
+    private void merge(String base, String ours, String theirs,
+                       String prefix, TreeMap<String, String[]> result) {
+        if (Objects.equals(ours, theirs) || Objects.equals(base, theirs)) {
+            return;
+        }
+        SortedMap<String, Tree.Entry> b = entries(base);
+        SortedMap<String, Tree.Entry> o = entries(ours);
+        SortedMap<String, Tree.Entry> t = entries(theirs);
+        TreeSet<String> names = new TreeSet<>(b.keySet());
+        names.addAll(o.keySet());
+        names.addAll(t.keySet());
+        for (String name : names) {
+            String path = prefix + name;
+            Tree.Entry[] found = {b.get(name), o.get(name), t.get(name)};
+            if (found[1] != null && found[2] != null
+                    && found[1].isTree() != found[2].isTree()
+                    && !same(found[0], found[1])
+                    && !same(found[0], found[2])) {
+                throw new GitletException(path + " is a file on one branch "
+                        + "and a directory on the other; rename one of them "
+                        + "and commit first.");
+            }
+            String[] trees = new String[found.length];
+            String[] blobs = new String[found.length];
+            boolean subtree = false;
+            for (int i = 0; i < found.length; i += 1) {
+                if (found[i] != null && found[i].isTree()) {
+                    trees[i] = found[i].id();
+                    subtree = true;
+                } else if (found[i] != null) {
+                    blobs[i] = found[i].id();
+                }
+            }
+            if (subtree) {
+                merge(trees[0], trees[1], trees[2], path + "/", result);
+            }
+            if (!Objects.equals(blobs[1], blobs[2])
+                    && !Objects.equals(blobs[0], blobs[2])) {
+                result.put(path, blobs);
+            }
+        }
+    }
+
+    /** Returns true if entries A and B, either of which may be null, name
+     * the same blob or tree.
+     * @param a - an entry, or null
+     * @param b - another entry, or null */
+    private static boolean same(Tree.Entry a, Tree.Entry b) {
+        return a == null ? b == null : b != null && a.isTree() == b.isTree()
+            && a.id().equals(b.id());
+    }
+
+    /** Returns the entries of tree ID, or none if ID is null.
+     * @param id - sha1 of the tree, or null */
+    private SortedMap<String, Tree.Entry> entries(String id) {
+        return id == null ? Tree.EMPTY.entries() : get(id).entries();
+    }
+
+    /** Returns the ids of tree ROOT and every tree under it.
+     * @param root - sha1 of the tree */
+    List<String> subtrees(String root) {
+        List<String> result = new ArrayList<>();
+        ArrayDeque<String> todo = new ArrayDeque<>();
+        todo.push(root);
+        while (!todo.isEmpty()) {
+            String id = todo.pop();
+            result.add(id);
+            for (Tree.Entry e : get(id).entries().values()) {
+                if (e.isTree()) {
+                    todo.push(e.id());
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -1,13 +1,16 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -15,8 +18,14 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 
 /** Assorted utilities.
@@ -30,26 +39,74 @@ class Utils {
     static final int UID_LENGTH = 40;
 
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
-     *  be any mixture of byte arrays and Strings. */
+     *  be any mixture of byte arrays, Strings and InputStreams.  Streams
+     *  are read to the end in chunks and closed. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
+        long start = Stats.enabled() ? System.nanoTime() : 0;
+        long size = 0;
+        MessageDigest md = SHA1.get();
+        md.reset();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+                size += ((byte[]) val).length;
+            } else if (val instanceof String) {
+                byte[] bytes = ((String) val).getBytes(StandardCharsets.UTF_8);
+                md.update(bytes);
+                size += bytes.length;
+            } else if (val instanceof InputStream) {
+                size += digest(md, (InputStream) val);
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+        }
+        String result = toHex(md.digest());
+        if (start != 0) {
+            Stats.add(Stats.HASH_BYTES, size);
+            Stats.add(Stats.HASH_NANOS, System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    /** A SHA-1 digest for each thread, so that sha1 doesn't have to look
+     *  one up every time it is called. */
+    private static final ThreadLocal<MessageDigest> SHA1 =
+        ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException excp) {
+                throw new IllegalArgumentException(
+                        "System does not support SHA-1");
             }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
+        });
+
+    /** Returns the bytes of RAW as a lower case hexadecimal numeral, the
+     *  form sha1 returns. */
+    static String toHex(byte[] raw) {
+        char[] result = new char[2 * raw.length];
+        for (int i = 0; i < raw.length; i += 1) {
+            result[2 * i] = HEX_DIGITS[(raw[i] >>> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[raw[i] & 0xf];
+        }
+        return new String(result);
+    }
+
+    /** Digits used by toHex. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** Feed everything left in IN to MD, then close IN.  Returns the
+     *  number of bytes fed. */
+    private static long digest(MessageDigest md, InputStream in) {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        try (InputStream src = Stats.counting(in)) {
+            for (int n = src.read(buffer); n >= 0; n = src.read(buffer)) {
+                md.update(buffer, 0, n);
+                size += n;
+            }
+            return size;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
@@ -94,7 +151,9 @@ class Utils {
             throw new IllegalArgumentException("must be a normal file");
         }
         try {
-            return Files.readAllBytes(file.toPath());
+            byte[] result = Files.readAllBytes(file.toPath());
+            Stats.add(Stats.BYTES_READ, result.length);
+            return result;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -119,14 +178,15 @@ class Utils {
             }
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
+            long size = 0;
             for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
-                }
+                byte[] bytes = obj instanceof byte[] ? (byte[]) obj
+                    : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                str.write(bytes);
+                size += bytes.length;
             }
             str.close();
+            Stats.add(Stats.BYTES_WRITTEN, size);
         } catch (IOException | ClassCastException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -148,11 +208,84 @@ class Utils {
         }
     }
 
+    /** Return an object of type T read from IN, casting it to
+     *  EXPECTEDCLASS, and close IN.  Throws IllegalArgumentException in
+     *  case of problems. */
+    static <T extends Serializable> T readObject(InputStream in,
+                                                 Class<T> expectedClass) {
+        try (ObjectInputStream objects = new ObjectInputStream(in)) {
+            return expectedClass.cast(objects.readObject());
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
         writeContents(file, serialize(obj));
     }
 
+    /* COMPRESSED FILES */
+
+    /** The bytes every compressed file starts with, so that files written
+     *  before compression was introduced can still be read as-is. */
+    private static final byte[] COMPRESSED_MAGIC = {0, 'g', 'l', 'z'};
+
+    /** Size of the buffers used when streaming file contents. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Deflate everything read from IN into FILE, creating or overwriting
+     *  it as needed.  IN is read in chunks and closed afterwards, so the
+     *  contents never have to fit in memory.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void writeCompressed(File file, InputStream in) {
+        Deflater deflater = new Deflater();
+        try (InputStream src = in;
+             OutputStream out = new BufferedOutputStream(
+                 Files.newOutputStream(file.toPath()), BUFFER_SIZE)) {
+            out.write(COMPRESSED_MAGIC);
+            DeflaterOutputStream deflated =
+                new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+            src.transferTo(deflated);
+            deflated.finish();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Deflate the contents of SOURCE into FILE.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void writeCompressed(File file, File source) {
+        try {
+            writeCompressed(file, Files.newInputStream(source.toPath()));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a stream over the inflated contents of FILE, which must have
+     *  been written by writeCompressed or be a plain uncompressed file.
+     *  The caller must close it.  Throws IllegalArgumentException in case
+     *  of problems. */
+    static InputStream readCompressed(File file) {
+        try {
+            InputStream in = new BufferedInputStream(
+                Files.newInputStream(file.toPath()), BUFFER_SIZE);
+            in.mark(COMPRESSED_MAGIC.length);
+            byte[] magic = in.readNBytes(COMPRESSED_MAGIC.length);
+            if (Arrays.equals(magic, COMPRESSED_MAGIC)) {
+                return new InflaterInputStream(in);
+            }
+            in.reset();
+            return in;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /* DIRECTORIES */
 
     /** Filter out all but plain files. */
@@ -217,6 +350,60 @@ class Utils {
     }
 
 
+    /** Returns S as a JSON string literal, quotes included. */
+    static String quoteJSON(String s) {
+        StringBuilder result = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < ' ') {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+
+    /* PARALLELISM */
+
+    /** Returns the number of threads to use for work done in parallel: the
+     *  value of the gitlet.threads property if it is set, and one per
+     *  processor otherwise. */
+    static int threads() {
+        String value = System.getProperty("gitlet.threads");
+        if (value != null) {
+            try {
+                return Math.max(1, Integer.parseInt(value.trim()));
+            } catch (NumberFormatException excp) {
+                throw error("Invalid gitlet.threads: %s", value);
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /** Calls ACTION on every element of ITEMS, using up to threads() threads
+     *  at once, and returns once all the calls are done.  If a call throws,
+     *  that exception is rethrown here. */
+    static <T> void forEachParallel(Collection<T> items, Consumer<T> action) {
+        if (items.isEmpty()) {
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads());
+        try {
+            pool.submit(() -> items.parallelStream().forEach(action)).get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
 
     /* MESSAGES AND ERROR REPORTING */
 
@@ -0,0 +1,201 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/** Remembers what each file in the CWD looked like (size, modification time
+ * and file key) the last time we hashed it, along with the SHA-1 of the
+ * blob it hashed to. As long as a file's stats haven't changed we can trust
+ * the old SHA-1 instead of reading the whole file again, just like git's
+ * index.
+ * @author SEANJHANNON */
+public class WorkingIndex {
+
+    /** Version of the layout the index is stored in; see toBytes. */
+    static final int FORMAT = 1;
+
+    /** How close (in ms) a file's modification time may be to the moment we
+     * looked at it before we stop trusting its stats. Filesystems with
+     * coarse timestamps can hide a second write that lands within the same
+     * tick, so such "racy" entries are re-hashed the next time around. */
+    private static final long RACY_WINDOW = 2000;
+
+    /** Maps filenames to what we know about them. */
+    private HashMap<String, Entry> _entries;
+    /** True if the index has changed since it was read in. */
+    private boolean _dirty;
+
+    /** The constructor - creates an empty index. */
+    public WorkingIndex() {
+        _entries = new HashMap<>();
+    }
+
+    /** Returns the SHA-1 of the blob FILE would produce, re-hashing it only
+     * if its stats no longer match what we recorded.
+     * @param file - the file in the CWD
+     * @param filename - the name the file is tracked under
+     * @return the sha1 of the file's blob */
+    public String blobID(File file, String filename) {
+        BasicFileAttributes attrs = stat(file);
+        Entry entry;
+        synchronized (this) {
+            entry = _entries.get(filename);
+        }
+        if (entry != null && entry.matches(attrs)) {
+            return entry._blob;
+        }
+        String id = new Blob(file).getSHA();
+        record(attrs, filename, id);
+        return id;
+    }
+
+    /** Records that FILE currently holds the contents of blob BLOBID, e.g.
+     * right after it was added or checked out.
+     * @param file - the file in the CWD
+     * @param filename - the name the file is tracked under
+     * @param blobID - sha1 of the blob holding the same contents */
+    public void record(File file, String filename, String blobID) {
+        record(stat(file), filename, blobID);
+    }
+
+    /** Drops every entry whose filename is not in FILENAMES.
+     * @param filenames - the files currently in the CWD */
+    public synchronized void retainAll(Collection<String> filenames) {
+        if (_entries.keySet().retainAll(filenames)) {
+            _dirty = true;
+        }
+    }
+
+    /** Returns true if the index needs to be written back out. */
+    public boolean isDirty() {
+        return _dirty;
+    }
+
+    /** Notes that the index has just been written out. */
+    public void markClean() {
+        _dirty = false;
+    }
+
+    /** Returns the index as it is stored: a Codec record holding the number
+     * of entries, then each one's filename, size, modification time, file
+     * key, blob and whether it is racy. */
+    synchronized byte[] toBytes() {
+        Codec.Writer out = new Codec.Writer(Codec.INDEX, FORMAT);
+        out.varint(_entries.size());
+        for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+            Entry entry = e.getValue();
+            out.string(e.getKey());
+            out.varint(entry._size);
+            out.signed(entry._mtime);
+            out.string(entry._key);
+            out.id(entry._blob);
+            out.bool(entry._racy);
+        }
+        return out.toByteArray();
+    }
+
+    /** Reads an index back from the bytes it was stored as. An index in
+     * any other form, e.g. one written by an older version of gitlet, is
+     * only a cache, so it is replaced by an empty one.
+     * @param bytes - what toBytes returned
+     * @return the index */
+    static WorkingIndex parse(byte[] bytes) {
+        WorkingIndex result = new WorkingIndex();
+        if (Codec.isLegacy(bytes)) {
+            return result;
+        }
+        Stats.add(Stats.OBJECTS_DECODED, 1);
+        Codec.Reader in = new Codec.Reader(bytes, Codec.INDEX, FORMAT);
+        for (long n = in.varint(); n > 0; n -= 1) {
+            String filename = in.string();
+            long size = in.varint();
+            long mtime = in.signed();
+            String key = in.string();
+            String blob = in.id();
+            result._entries.put(filename,
+                new Entry(size, mtime, key, blob, in.bool()));
+        }
+        return result;
+    }
+
+    /** Helper for record - stores a fresh entry for FILENAME. Like the
+     * lookup in blobID, synchronized so that files can be hashed from
+     * several threads at once.
+     * @param attrs - stats of the file
+     * @param filename - the name the file is tracked under
+     * @param blobID - sha1 of the file's blob */
+    private synchronized void record(BasicFileAttributes attrs, String filename,
+                        String blobID) {
+        _entries.put(filename, new Entry(attrs, blobID));
+        _dirty = true;
+    }
+
+    /** Reads the stats of FILE.
+     * @param file - the file
+     * @return its attributes */
+    private static BasicFileAttributes stat(File file) {
+        Stats.add(Stats.FILES_STATTED, 1);
+        try {
+            return Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** What we know about a single file. */
+    private static class Entry {
+        /** Size of the file in bytes. */
+        private long _size;
+        /** Last modification time of the file, in ms. */
+        private long _mtime;
+        /** Platform file key (inode and device on unix), or null. */
+        private String _key;
+        /** SHA-1 of the blob the file hashed to. */
+        private String _blob;
+        /** True if _mtime was too close to when we looked to be trusted. */
+        private boolean _racy;
+
+        /** Creates an entry for a file with the given stats.
+         * @param attrs - stats of the file
+         * @param blob - sha1 of the file's blob */
+        Entry(BasicFileAttributes attrs, String blob) {
+            _size = attrs.size();
+            _mtime = attrs.lastModifiedTime().toMillis();
+            _key = Objects.toString(attrs.fileKey(), null);
+            _blob = blob;
+            _racy = System.currentTimeMillis() - _mtime < RACY_WINDOW;
+        }
+
+        /** Creates an entry read back from disk.
+         * @param size - size of the file
+         * @param mtime - modification time of the file, in ms
+         * @param key - the file key, or null
+         * @param blob - sha1 of the file's blob
+         * @param racy - whether MTIME can't be trusted */
+        Entry(long size, long mtime, String key, String blob,
+              boolean racy) {
+            _size = size;
+            _mtime = mtime;
+            _key = key;
+            _blob = blob;
+            _racy = racy;
+        }
+
+        /** Returns true if a file with stats ATTRS can be assumed to be
+         * unchanged since this entry was made.
+         * @param attrs - current stats of the file */
+        boolean matches(BasicFileAttributes attrs) {
+            return !_racy && _size == attrs.size()
+                    && _mtime == attrs.lastModifiedTime().toMillis()
+                    && Objects.equals(_key,
+                        Objects.toString(attrs.fileKey(), null));
+        }
+    }
+}